@@ -0,0 +1,239 @@
+package zx.soft.opentsdb.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 自适应批量控制，按TSD的响应延迟和错误调整批量大小和并发请求数（AIMD）
+ * <p/>
+ * 响应延迟（指数平滑）低于目标时，每个成功请求批量大小加一个步长，每轮（并发数个成功请求）并发数加1；
+ * 延迟超过目标、超时、连接异常或者5xx/429响应时，批量大小和并发数立即减半。
+ * 同一次拥塞期间发出的请求只触发一次减半：每次减半后进入新的周期，之前周期发出的请求的结果不再减半。
+ * 4xx等数据错误与TSD负载无关，不参与调整。
+ *
+ * @author wanggang
+ *
+ */
+public class AdaptiveBatchController {
+
+	private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchController.class);
+
+	// 延迟指数平滑系数
+	private static final double LATENCY_SMOOTHING = 0.3;
+
+	public static final int DEFAULT_MIN_BATCH_SIZE = 10;
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 5000;
+
+	public static final int DEFAULT_BATCH_STEP = 10;
+
+	public static final int DEFAULT_MIN_CONCURRENCY = 1;
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 8;
+
+	private final long latencyTargetNanos;
+
+	private final int minBatchSize;
+
+	private final int maxBatchSize;
+
+	private final int batchStep;
+
+	private final int minConcurrency;
+
+	private final int maxConcurrency;
+
+	// 以下状态由this锁保护
+	private int batchSize;
+
+	private int concurrency;
+
+	private int inFlight;
+
+	// 减半的周期，请求开始时记录
+	private long epoch;
+
+	// 本轮成功请求数，达到并发数时并发数加1
+	private int successes;
+
+	// 平滑后的响应延迟，0表示还没有样本
+	private double smoothedLatency;
+
+	private AdaptiveBatchController(Builder builder) {
+		this.latencyTargetNanos = builder.latencyTargetNanos;
+		this.minBatchSize = builder.minBatchSize;
+		this.maxBatchSize = builder.maxBatchSize;
+		this.batchStep = builder.batchStep;
+		this.minConcurrency = builder.minConcurrency;
+		this.maxConcurrency = builder.maxConcurrency;
+		this.batchSize = builder.minBatchSize;
+		this.concurrency = builder.minConcurrency;
+	}
+
+	/**
+	 * 返回{@link Builder}实例
+	 *
+	 * @param latencyTarget 目标响应延迟，平滑后的延迟超过该值时回退
+	 */
+	public static Builder forLatencyTarget(long latencyTarget, TimeUnit unit) {
+		return new Builder(unit.toNanos(latencyTarget));
+	}
+
+	public static class Builder {
+
+		private final long latencyTargetNanos;
+		private int minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+		private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+		private int batchStep = DEFAULT_BATCH_STEP;
+		private int minConcurrency = DEFAULT_MIN_CONCURRENCY;
+		private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+		private Builder(long latencyTargetNanos) {
+			this.latencyTargetNanos = latencyTargetNanos;
+		}
+
+		/**
+		 * 批量大小范围，从最小值开始增长
+		 */
+		public Builder withBatchSize(int minBatchSize, int maxBatchSize) {
+			if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+				throw new IllegalArgumentException("Invalid batch size range: " + minBatchSize + "-" + maxBatchSize);
+			}
+			this.minBatchSize = minBatchSize;
+			this.maxBatchSize = maxBatchSize;
+			return this;
+		}
+
+		/**
+		 * 每个成功请求批量大小的增量
+		 */
+		public Builder withBatchStep(int batchStep) {
+			this.batchStep = batchStep;
+			return this;
+		}
+
+		/**
+		 * 并发请求数范围，从最小值开始增长
+		 */
+		public Builder withConcurrency(int minConcurrency, int maxConcurrency) {
+			if (minConcurrency < 1 || maxConcurrency < minConcurrency) {
+				throw new IllegalArgumentException("Invalid concurrency range: " + minConcurrency + "-"
+						+ maxConcurrency);
+			}
+			this.minConcurrency = minConcurrency;
+			this.maxConcurrency = maxConcurrency;
+			return this;
+		}
+
+		public AdaptiveBatchController build() {
+			return new AdaptiveBatchController(this);
+		}
+
+	}
+
+	/**
+	 * 当前批量大小
+	 */
+	public synchronized int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * 当前允许的并发请求数
+	 */
+	public synchronized int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * 最大并发请求数，用于确定发送线程数
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * 请求开始前调用，并发请求数达到上限时等待
+	 *
+	 * @return 本次请求的周期，请求结束时传给{@link #onSuccess}或{@link #onFailure}
+	 */
+	public synchronized long acquire() throws InterruptedException {
+		while (inFlight >= concurrency) {
+			wait();
+		}
+		inFlight++;
+		return epoch;
+	}
+
+	/**
+	 * 请求结束后调用，与{@link #acquire()}成对使用
+	 */
+	public synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * 请求成功
+	 *
+	 * @param ticket {@link #acquire()}返回的周期
+	 * @param latencyNanos 响应延迟
+	 */
+	public synchronized void onSuccess(long ticket, long latencyNanos) {
+		smoothedLatency = smoothedLatency == 0 ? latencyNanos : smoothedLatency + LATENCY_SMOOTHING
+				* (latencyNanos - smoothedLatency);
+		if (smoothedLatency > latencyTargetNanos) {
+			decrease(ticket, "latency");
+			return;
+		}
+		batchSize = Math.min(maxBatchSize, batchSize + batchStep);
+		if (++successes >= concurrency) {
+			successes = 0;
+			if (concurrency < maxConcurrency) {
+				concurrency++;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * 请求失败，超时、连接异常和5xx/429响应时回退
+	 *
+	 * @param ticket {@link #acquire()}返回的周期
+	 */
+	public synchronized void onFailure(long ticket, Exception e) {
+		if (isOverload(e)) {
+			decrease(ticket, e.getMessage());
+		}
+	}
+
+	private void decrease(long ticket, String reason) {
+		if (ticket != epoch) {
+			return;
+		}
+		epoch++;
+		batchSize = Math.max(minBatchSize, batchSize / 2);
+		concurrency = Math.max(minConcurrency, concurrency / 2);
+		successes = 0;
+		// 重新采样，避免旧的延迟继续触发回退
+		smoothedLatency = 0;
+		logger.warn("OpenTSDB overloaded ({}), backing off to batchSize={}, concurrency={}.", reason, batchSize,
+				concurrency);
+	}
+
+	/**
+	 * 是否为TSD过载引起的失败
+	 */
+	static boolean isOverload(Exception e) {
+		if (e instanceof OpenTsdbException) {
+			final int status = ((OpenTsdbException) e).getStatusCode();
+			return status >= 500 || status == 429;
+		}
+		// 超时、连接被拒绝或被重置，jersey会包装为ProcessingException
+		return e instanceof IOException || e.getCause() instanceof IOException;
+	}
+
+}
@@ -0,0 +1,330 @@
+package zx.soft.opentsdb.client;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+/**
+ * 基数保护，限制每个Metric的时间序列数和每个tag的取值个数
+ * <p/>
+ * 数据离开客户端之前检查：已经出现过的时间序列和tag值总是放行，新出现的在未超限时记录并放行，
+ * 超限后按策略丢弃数据点，或者将超限的tag值合并为{@link #COLLAPSED_VALUE}。
+ * 已出现的取值以64位哈希保存在有界集合中，跟踪的Metric个数同样有上限，内存占用与限制值成正比。
+ * Metric个数超限后，新的Metric按策略丢弃，或者合并为名为{@link #COLLAPSED_VALUE}的Metric。
+ *
+ * @author wanggang
+ *
+ */
+public class CardinalityGuard {
+
+	private static final Logger logger = LoggerFactory.getLogger(CardinalityGuard.class);
+
+	// 超限tag值合并后的取值
+	public static final String COLLAPSED_VALUE = "other";
+
+	// 每个Metric默认的时间序列数上限
+	public static final int DEFAULT_MAX_SERIES_PER_METRIC = 10_000;
+
+	// 每个tag默认的取值个数上限
+	public static final int DEFAULT_MAX_VALUES_PER_TAG = 1_000;
+
+	// 默认跟踪的Metric个数上限
+	public static final int DEFAULT_MAX_METRICS = 10_000;
+
+	// 每个Metric超限的日志间隔（次数）
+	private static final long LOG_EVERY_VIOLATIONS = 1000;
+
+	private static final long COLLAPSED_HASH = OpenTsdbMetric.mix64(OpenTsdbMetric.hash64(COLLAPSED_VALUE));
+
+	/**
+	 * 超限处理策略
+	 */
+	public enum Policy {
+		// 丢弃数据点
+		DROP,
+		// 将超限的tag值合并为other，时间序列数仍超限时丢弃
+		COLLAPSE
+	}
+
+	private final int maxSeriesPerMetric;
+
+	private final int maxValuesPerTag;
+
+	private final int maxMetrics;
+
+	private final Policy policy;
+
+	// 单独设置的Metric时间序列数上限
+	private final Map<String, Integer> metricLimits;
+
+	private final ConcurrentHashMap<String, MetricState> states = new ConcurrentHashMap<>();
+
+	// Metric个数超限后丢弃的数据点数
+	private final AtomicLong droppedOverMetricLimit = new AtomicLong();
+
+	private CardinalityGuard(Builder builder) {
+		this.maxSeriesPerMetric = builder.maxSeriesPerMetric;
+		this.maxValuesPerTag = builder.maxValuesPerTag;
+		this.maxMetrics = builder.maxMetrics;
+		this.policy = builder.policy;
+		this.metricLimits = new HashMap<>(builder.metricLimits);
+	}
+
+	public static Builder withPolicy(Policy policy) {
+		return new Builder(policy);
+	}
+
+	public static class Builder {
+
+		private final Policy policy;
+		private int maxSeriesPerMetric = DEFAULT_MAX_SERIES_PER_METRIC;
+		private int maxValuesPerTag = DEFAULT_MAX_VALUES_PER_TAG;
+		private int maxMetrics = DEFAULT_MAX_METRICS;
+		private final Map<String, Integer> metricLimits = new HashMap<>();
+
+		private Builder(Policy policy) {
+			this.policy = policy;
+		}
+
+		/**
+		 * 每个Metric的时间序列数上限，0表示不限制
+		 */
+		public Builder withMaxSeriesPerMetric(int maxSeriesPerMetric) {
+			this.maxSeriesPerMetric = maxSeriesPerMetric;
+			return this;
+		}
+
+		/**
+		 * 每个Metric下每个tag的取值个数上限，0表示不限制
+		 */
+		public Builder withMaxValuesPerTag(int maxValuesPerTag) {
+			this.maxValuesPerTag = maxValuesPerTag;
+			return this;
+		}
+
+		/**
+		 * 跟踪的Metric个数上限，0表示不限制
+		 */
+		public Builder withMaxMetrics(int maxMetrics) {
+			this.maxMetrics = maxMetrics;
+			return this;
+		}
+
+		/**
+		 * 单独设置某个Metric的时间序列数上限
+		 */
+		public Builder withMetricLimit(String metric, int maxSeries) {
+			this.metricLimits.put(metric, maxSeries);
+			return this;
+		}
+
+		public CardinalityGuard build() {
+			return new CardinalityGuard(this);
+		}
+
+	}
+
+	/**
+	 * 过滤Metric集合
+	 *
+	 * @return 放行或合并后的Metric集合，保持原来的顺序
+	 */
+	public Set<OpenTsdbMetric> filter(Collection<OpenTsdbMetric> metrics) {
+		final Set<OpenTsdbMetric> result = new LinkedHashSet<>();
+		for (OpenTsdbMetric metric : metrics) {
+			final OpenTsdbMetric checked = check(metric);
+			if (checked != null) {
+				result.add(checked);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 检查一条数据
+	 *
+	 * @return 放行时返回原数据，tag值被合并时返回新数据，丢弃时返回null
+	 */
+	public OpenTsdbMetric check(OpenTsdbMetric metric) {
+		MetricState state = states.get(metric.getMetric());
+		if (state == null) {
+			if (maxMetrics > 0 && states.size() >= maxMetrics && !metricLimits.containsKey(metric.getMetric())) {
+				if (policy == Policy.DROP) {
+					if (droppedOverMetricLimit.incrementAndGet() % LOG_EVERY_VIOLATIONS == 1) {
+						logger.warn("Cardinality limit exceeded: more than {} metrics, dropped {} points so far, "
+								+ "last: {}.", maxMetrics, droppedOverMetricLimit.get(), metric.getMetric());
+					}
+					return null;
+				}
+				// 合并后的Metric与其他Metric一样受时间序列数限制
+				metric = OpenTsdbMetric.named(COLLAPSED_VALUE).withTimestamp(metric.getTimestamp())
+						.withValue(metric.getValue()).withTags(metric.getTags()).build();
+				state = states.get(COLLAPSED_VALUE);
+			}
+		}
+		if (state == null) {
+			final Integer limit = metricLimits.get(metric.getMetric());
+			states.putIfAbsent(metric.getMetric(), new MetricState(limit == null ? maxSeriesPerMetric : limit));
+			state = states.get(metric.getMetric());
+		}
+
+		synchronized (state) {
+			// 已经出现过的时间序列直接放行，无需逐个检查tag
+			if (state.series.contains(metric.seriesHash())) {
+				return metric;
+			}
+			// 先检查所有tag和时间序列数，数据点被放行后才记录新的取值，被丢弃的数据点不占用名额
+			OpenTsdbMetric checked = metric;
+			if (maxValuesPerTag > 0) {
+				Map<String, String> collapsed = null;
+				for (Entry<String, String> tag : metric.getTags().entrySet()) {
+					if (state.hasRoom(tag.getKey(), tag.getValue(), maxValuesPerTag)) {
+						continue;
+					}
+					if (policy == Policy.DROP) {
+						return violation(state, metric, "tag " + tag.getKey() + " has more than " + maxValuesPerTag
+								+ " values");
+					}
+					if (collapsed == null) {
+						collapsed = new TreeMap<>(metric.getTags());
+					}
+					collapsed.put(tag.getKey(), COLLAPSED_VALUE);
+				}
+				if (collapsed != null) {
+					checked = OpenTsdbMetric.named(metric.getMetric()).withTimestamp(metric.getTimestamp())
+							.withValue(metric.getValue()).withTags(collapsed).build();
+				}
+			}
+			if (state.maxSeries > 0 && state.series.size() >= state.maxSeries
+					&& !state.series.contains(checked.seriesHash())) {
+				return violation(state, metric, "more than " + state.maxSeries + " series");
+			}
+			if (checked != metric) {
+				state.collapsed++;
+			}
+			if (maxValuesPerTag > 0) {
+				state.addValues(checked.getTags());
+			}
+			state.series.add(checked.seriesHash());
+			return checked;
+		}
+	}
+
+	/**
+	 * 每个Metric被丢弃的数据点个数
+	 */
+	public Map<String, Long> getDropped() {
+		final Map<String, Long> result = new HashMap<>();
+		for (Entry<String, MetricState> entry : states.entrySet()) {
+			synchronized (entry.getValue()) {
+				if (entry.getValue().dropped > 0) {
+					result.put(entry.getKey(), entry.getValue().dropped);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Metric个数超限后丢弃的数据点个数，这些Metric不被跟踪，不计入{@link #getDropped()}
+	 */
+	public long getDroppedOverMetricLimit() {
+		return droppedOverMetricLimit.get();
+	}
+
+	/**
+	 * 每个Metric被合并tag值的数据点个数
+	 */
+	public Map<String, Long> getCollapsed() {
+		final Map<String, Long> result = new HashMap<>();
+		for (Entry<String, MetricState> entry : states.entrySet()) {
+			synchronized (entry.getValue()) {
+				if (entry.getValue().collapsed > 0) {
+					result.put(entry.getKey(), entry.getValue().collapsed);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 当前跟踪的时间序列数
+	 */
+	public int getSeriesCount(String metric) {
+		final MetricState state = states.get(metric);
+		if (state == null) {
+			return 0;
+		}
+		synchronized (state) {
+			return state.series.size();
+		}
+	}
+
+	private OpenTsdbMetric violation(MetricState state, OpenTsdbMetric metric, String reason) {
+		if (state.dropped++ % LOG_EVERY_VIOLATIONS == 0) {
+			logger.warn("Cardinality limit exceeded for metric {}: {}, dropped {} points so far, last: {}.",
+					metric.getMetric(), reason, state.dropped, metric.getTags());
+		}
+		return null;
+	}
+
+	/**
+	 * 每个Metric的跟踪状态，访问时需要同步
+	 */
+	private static class MetricState {
+
+		private final int maxSeries;
+
+		private final LongHashSet series = new LongHashSet(64);
+
+		private final Map<String, LongHashSet> tagValues = new HashMap<>();
+
+		private long dropped = 0;
+
+		private long collapsed = 0;
+
+		private MetricState(int maxSeries) {
+			this.maxSeries = maxSeries;
+		}
+
+		/**
+		 * tag值已经出现过，或者该tag的取值个数未超限
+		 */
+		private boolean hasRoom(String key, String value, int maxValues) {
+			final LongHashSet values = tagValues.get(key);
+			if (values == null) {
+				return true;
+			}
+			final long hash = OpenTsdbMetric.mix64(OpenTsdbMetric.hash64(value));
+			return hash == COLLAPSED_HASH || values.contains(hash) || values.size() < maxValues;
+		}
+
+		private void addValues(Map<String, String> tags) {
+			for (Entry<String, String> tag : tags.entrySet()) {
+				final long hash = OpenTsdbMetric.mix64(OpenTsdbMetric.hash64(tag.getValue()));
+				if (hash == COLLAPSED_HASH) {
+					continue;
+				}
+				LongHashSet values = tagValues.get(tag.getKey());
+				if (values == null) {
+					values = new LongHashSet(16);
+					tagValues.put(tag.getKey(), values);
+				}
+				values.add(hash);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,109 @@
+package zx.soft.opentsdb.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+/**
+ * 批内合并：同一时间序列同一时间戳的多个数据点合并为一个
+ * <p/>
+ * TSD收到同一时间序列同一时间戳的不同值时会报重复数据点错误，整批写入可能因此失败。
+ * 按（时间序列哈希，时间戳）放入基本类型数组实现的开放寻址表，发生哈希冲突时再比较Metric名和Tags，
+ * 不为每个数据点创建键对象。合并后保持数据点首次出现的顺序。
+ *
+ * @author wanggang
+ *
+ */
+public final class Coalescer {
+
+	/**
+	 * 合并方式
+	 */
+	public enum Mode {
+		// 保留最后一个值
+		LAST,
+		// 求和
+		SUM,
+		// 最大值
+		MAX,
+		// 最小值
+		MIN
+	}
+
+	private Coalescer() {
+	}
+
+	/**
+	 * 合并数据点，非数值的值总是保留最后一个
+	 *
+	 * @return 合并后的数据点，按首次出现的顺序
+	 */
+	public static List<OpenTsdbMetric> coalesce(Collection<OpenTsdbMetric> metrics, Mode mode) {
+		final List<OpenTsdbMetric> result = new ArrayList<>(metrics.size());
+		if (metrics.size() < 2) {
+			result.addAll(metrics);
+			return result;
+		}
+
+		final int capacity = Integer.highestOneBit(metrics.size() * 2 - 1) << 1;
+		final int mask = capacity - 1;
+		final long[] keys = new long[capacity];
+		// 结果中的下标加1，0表示空槽
+		final int[] slots = new int[capacity];
+		for (OpenTsdbMetric metric : metrics) {
+			final long key = key(metric);
+			int index = (int) key & mask;
+			while (true) {
+				final int slot = slots[index];
+				if (slot == 0) {
+					keys[index] = key;
+					result.add(metric);
+					slots[index] = result.size();
+					break;
+				}
+				if (keys[index] == key) {
+					final OpenTsdbMetric existing = result.get(slot - 1);
+					if (Objects.equals(existing.getTimestamp(), metric.getTimestamp()) && existing.sameSeries(metric)) {
+						result.set(slot - 1, merge(existing, metric, mode));
+						break;
+					}
+				}
+				index = (index + 1) & mask;
+			}
+		}
+		return result;
+	}
+
+	private static long key(OpenTsdbMetric metric) {
+		final Long timestamp = metric.getTimestamp();
+		return OpenTsdbMetric.mix64(metric.seriesHash() + (timestamp == null ? 0 : timestamp) * 0x9E3779B97F4A7C15L);
+	}
+
+	private static OpenTsdbMetric merge(OpenTsdbMetric existing, OpenTsdbMetric metric, Mode mode) {
+		if (mode == Mode.LAST || !(existing.getValue() instanceof Number) || !(metric.getValue() instanceof Number)) {
+			return metric;
+		}
+		final Number a = (Number) existing.getValue();
+		final Number b = (Number) metric.getValue();
+		final Object value;
+		if (isIntegral(a) && isIntegral(b)) {
+			final long x = a.longValue();
+			final long y = b.longValue();
+			value = mode == Mode.SUM ? x + y : mode == Mode.MAX ? Math.max(x, y) : Math.min(x, y);
+		} else {
+			final double x = a.doubleValue();
+			final double y = b.doubleValue();
+			value = mode == Mode.SUM ? x + y : mode == Mode.MAX ? Math.max(x, y) : Math.min(x, y);
+		}
+		return OpenTsdbMetric.named(metric.getMetric()).withTimestamp(metric.getTimestamp()).withValue(value)
+				.withTags(metric.getTags()).build();
+	}
+
+	private static boolean isIntegral(Number value) {
+		return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+	}
+
+}
@@ -0,0 +1,66 @@
+package zx.soft.opentsdb.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+/**
+ * 一批已编码的数据点，每种格式最多编码一次，由所有输出目标共享
+ * <p/>
+ * JSON格式即/api/put的请求体，每批写成一行时也可以直接用于重放；
+ * telnet格式为每个数据点一行put命令，第一次使用时编码。返回的字节数组不能修改。
+ *
+ * @author wanggang
+ *
+ */
+public final class EncodedBatch {
+
+	private final List<OpenTsdbMetric> metrics;
+
+	private final byte[] json;
+
+	private byte[] lines;
+
+	EncodedBatch(Collection<OpenTsdbMetric> metrics, byte[] json) {
+		this.metrics = Collections.unmodifiableList(new ArrayList<>(metrics));
+		this.json = json;
+	}
+
+	public static EncodedBatch of(Collection<OpenTsdbMetric> metrics) {
+		return new EncodedBatch(metrics, OpenTsdbMetric.serializeJson(metrics));
+	}
+
+	public List<OpenTsdbMetric> getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * JSON数组格式，/api/put的请求体
+	 */
+	public byte[] json() {
+		return json;
+	}
+
+	/**
+	 * telnet格式，每个数据点一行put命令
+	 */
+	public synchronized byte[] lines() {
+		if (lines == null) {
+			final StringBuilder result = new StringBuilder(metrics.size() * 64);
+			for (OpenTsdbMetric metric : metrics) {
+				result.append(metric.serialize()).append('\n');
+			}
+			lines = result.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		return lines;
+	}
+
+	public int size() {
+		return metrics.size();
+	}
+
+}
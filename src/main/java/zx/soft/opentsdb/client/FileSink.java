@@ -0,0 +1,194 @@
+package zx.soft.opentsdb.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import zx.soft.utils.log.LogbackUtil;
+
+/**
+ * 输出到本地文件，用于重放和审计
+ * <p/>
+ * 每批数据写成一行JSON数组，即/api/put的请求体，重放时逐行POST即可。
+ * 文件超过大小上限后滚动：当前文件重命名为file.1，原来的file.1重命名为file.2，依此类推，最多保留指定个数。
+ *
+ * @author wanggang
+ *
+ */
+public class FileSink implements MetricSink {
+
+	private static final Logger logger = LoggerFactory.getLogger(FileSink.class);
+
+	// 默认的文件大小上限
+	public static final long DEFAULT_MAX_FILE_SIZE = 100L * 1024 * 1024;
+
+	// 默认保留的历史文件个数
+	public static final int DEFAULT_MAX_HISTORY = 10;
+
+	private static final byte[] NEWLINE = { '\n' };
+
+	private final Path path;
+
+	private final long maxFileSize;
+
+	private final int maxHistory;
+
+	private final boolean sync;
+
+	private FileChannel channel;
+
+	private long size;
+
+	private FileSink(Builder builder) {
+		this.path = builder.path;
+		this.maxFileSize = builder.maxFileSize;
+		this.maxHistory = builder.maxHistory;
+		this.sync = builder.sync;
+	}
+
+	public static Builder forPath(Path path) {
+		return new Builder(path);
+	}
+
+	public static class Builder {
+
+		private final Path path;
+		private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+		private int maxHistory = DEFAULT_MAX_HISTORY;
+		private boolean sync = false;
+
+		private Builder(Path path) {
+			this.path = path;
+		}
+
+		/**
+		 * 文件大小上限，超过后滚动
+		 */
+		public Builder withMaxFileSize(long maxFileSize) {
+			this.maxFileSize = maxFileSize;
+			return this;
+		}
+
+		/**
+		 * 保留的历史文件个数，0表示滚动时直接删除
+		 */
+		public Builder withMaxHistory(int maxHistory) {
+			this.maxHistory = maxHistory;
+			return this;
+		}
+
+		/**
+		 * 每批写入后刷到磁盘，默认由操作系统决定
+		 */
+		public Builder withSync(boolean sync) {
+			this.sync = sync;
+			return this;
+		}
+
+		public FileSink build() {
+			return new FileSink(this);
+		}
+
+	}
+
+	@Override
+	public synchronized void write(EncodedBatch batch) throws IOException {
+		if (channel == null) {
+			open();
+		} else if (size >= maxFileSize) {
+			rotate();
+		}
+		final long start = size;
+		final ByteBuffer[] buffers = { ByteBuffer.wrap(batch.json()), ByteBuffer.wrap(NEWLINE) };
+		try {
+			while (buffers[1].hasRemaining()) {
+				size += channel.write(buffers);
+			}
+			if (sync) {
+				channel.force(false);
+			}
+		} catch (IOException e) {
+			discardPartialLine(start);
+			throw e;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.error("Close file sink failed, Exception: {}.", LogbackUtil.expection2Str(e));
+			}
+			channel = null;
+		}
+	}
+
+	private void open() throws IOException {
+		final Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		size = channel.size();
+		channel.position(size);
+		if (size > 0) {
+			// 上次写入未能截断的半行，补一个换行，后续批次仍从新的一行开始
+			final ByteBuffer last = ByteBuffer.allocate(1);
+			channel.read(last, size - 1);
+			if (last.get(0) != '\n') {
+				size += channel.write(ByteBuffer.wrap(NEWLINE));
+			}
+		}
+	}
+
+	/**
+	 * 写入失败后截断到本批写入之前的位置，避免下一批接在半行后面；通道已被关闭（如线程被中断）时重新打开截断
+	 */
+	private void discardPartialLine(long start) {
+		try {
+			if (channel.isOpen()) {
+				channel.truncate(start);
+				size = start;
+				return;
+			}
+			channel = null;
+			try (FileChannel reopened = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				reopened.truncate(start);
+			}
+		} catch (IOException e) {
+			logger.error("Truncate file sink failed, Exception: {}.", LogbackUtil.expection2Str(e));
+			close();
+		}
+	}
+
+	private void rotate() throws IOException {
+		close();
+		if (maxHistory > 0) {
+			Files.deleteIfExists(history(maxHistory));
+			for (int i = maxHistory - 1; i >= 1; i--) {
+				if (Files.exists(history(i))) {
+					Files.move(history(i), history(i + 1), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			Files.move(path, history(1), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.deleteIfExists(path);
+		}
+		open();
+	}
+
+	private Path history(int index) {
+		return path.resolveSibling(path.getFileName() + "." + index);
+	}
+
+}
@@ -0,0 +1,39 @@
+package zx.soft.opentsdb.client;
+
+import java.io.IOException;
+
+/**
+ * 输出到另一个TSD的/api/put接口，例如同时写入两个集群
+ *
+ * @author wanggang
+ *
+ */
+public class HttpSink implements MetricSink {
+
+	private final OpenTsdbTransport transport;
+
+	public HttpSink(OpenTsdbTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * 使用JDK传输层和默认超时时间
+	 *
+	 * @param baseUrl TSD服务URL
+	 */
+	public static HttpSink forService(String baseUrl) {
+		return new HttpSink(new JdkHttpTransport(baseUrl, OpenTsdbClient.CONN_TIMEOUT_DEFAULT_MS,
+				OpenTsdbClient.READ_TIMEOUT_DEFAULT_MS));
+	}
+
+	@Override
+	public void write(EncodedBatch batch) throws IOException {
+		transport.post("/api/put", batch.json());
+	}
+
+	@Override
+	public void close() {
+		transport.close();
+	}
+
+}
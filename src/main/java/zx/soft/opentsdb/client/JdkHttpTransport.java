@@ -0,0 +1,94 @@
+package zx.soft.opentsdb.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基于JDK HttpURLConnection的轻量传输层实现，不依赖jersey和Jackson
+ * <p/>
+ * 连接复用依赖JDK内置的HTTP keep-alive缓存，每个目标地址缓存的空闲连接数
+ * 由系统属性http.maxConnections控制（默认5）。响应体必须读完并关闭，连接才会被缓存。
+ *
+ * @author wanggang
+ *
+ */
+class JdkHttpTransport implements OpenTsdbTransport {
+
+	// 错误信息最多保留的长度
+	static final int MAX_ERROR_MESSAGE_LENGTH = 512;
+
+	private final String baseUrl;
+
+	private final int connectionTimeout;
+
+	private final int readTimeout;
+
+	JdkHttpTransport(String baseUrl, int connectionTimeout, int readTimeout) {
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+		this.connectionTimeout = connectionTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	@Override
+	public void post(String path, byte[] body) throws IOException {
+		try (InputStream in = stream(path, body)) {
+			drain(in);
+		}
+	}
+
+	@Override
+	public InputStream stream(String path, byte[] body) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		connection.setConnectTimeout(connectionTimeout);
+		connection.setReadTimeout(readTimeout);
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setUseCaches(false);
+		connection.setRequestProperty("Content-Type", "application/json");
+		connection.setFixedLengthStreamingMode(body.length);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body);
+		}
+
+		final int status = connection.getResponseCode();
+		if (status >= 400) {
+			throw new OpenTsdbException(status, readError(connection));
+		}
+		return connection.getInputStream();
+	}
+
+	private static String readError(HttpURLConnection connection) throws IOException {
+		try (InputStream in = connection.getErrorStream()) {
+			if (in == null) {
+				return null;
+			}
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			final byte[] chunk = new byte[1024];
+			int n;
+			while ((n = in.read(chunk)) != -1) {
+				if (buffer.size() < MAX_ERROR_MESSAGE_LENGTH) {
+					buffer.write(chunk, 0, Math.min(n, MAX_ERROR_MESSAGE_LENGTH - buffer.size()));
+				}
+			}
+			return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		final byte[] chunk = new byte[1024];
+		while (in.read(chunk) != -1) {
+			// 读完响应体，连接才能被keep-alive缓存复用
+		}
+	}
+
+	@Override
+	public void close() {
+		// JDK的keep-alive缓存是全局的，无需释放
+	}
+
+}
@@ -0,0 +1,160 @@
+package zx.soft.opentsdb.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.http.config.SocketConfig;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+
+/**
+ * 基于jersey的传输层实现，可选使用Apache HttpClient连接池
+ * <p/>
+ * 依赖jersey的API都放在这里，{@link OpenTsdbClient}本身不引用jersey的类型，使用JDK传输层时可以排除jersey依赖。
+ *
+ * @author wanggang
+ *
+ */
+public class JerseyTransport implements OpenTsdbTransport {
+
+	// 连接空闲超过该时间后，复用前需要先校验连接是否可用
+	private static final int VALIDATE_AFTER_INACTIVITY_MS = 2000;
+
+	private final WebTarget apiResource;
+
+	// jersey客户端，通过WebTarget创建时为null
+	private final Client client;
+
+	// 空闲连接回收线程，未开启连接池时为null
+	private final ScheduledExecutorService connectionEvictor;
+
+	/**
+	 * 通过基本的WebTarget创建客户端
+	 *
+	 * @param apiResource
+	 * @return
+	 */
+	public static OpenTsdbClient createClient(WebTarget apiResource) {
+		return OpenTsdbClient.create(new JerseyTransport(apiResource));
+	}
+
+	JerseyTransport(WebTarget apiResource) {
+		this.apiResource = apiResource;
+		this.client = null;
+		this.connectionEvictor = null;
+	}
+
+	JerseyTransport(OpenTsdbClient.Builder builder) {
+		final ClientConfig config = new ClientConfig();
+		config.property(ClientProperties.CONNECT_TIMEOUT, builder.connectionTimeout);
+		config.property(ClientProperties.READ_TIMEOUT, builder.readTimeout);
+		if (builder.pooled) {
+			final PoolingHttpClientConnectionManager connectionManager = createConnectionManager(builder);
+			config.connectorProvider(new ApacheConnectorProvider());
+			config.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+			this.connectionEvictor = startConnectionEvictor(connectionManager, builder.idleConnectionTimeout);
+		} else {
+			this.connectionEvictor = null;
+		}
+
+		this.client = ClientBuilder.newClient(config);
+		this.apiResource = client.target(builder.baseUrl);
+	}
+
+	/**
+	 * 创建连接池，复用到TSD的长连接，避免频繁建连导致大量TIME_WAIT
+	 */
+	private static PoolingHttpClientConnectionManager createConnectionManager(OpenTsdbClient.Builder builder) {
+		final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+				builder.keepAlive > 0 ? builder.keepAlive : -1, TimeUnit.MILLISECONDS);
+		connectionManager.setMaxTotal(builder.maxConnections);
+		connectionManager.setDefaultMaxPerRoute(builder.maxConnectionsPerRoute);
+		connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MS);
+		connectionManager.setDefaultSocketConfig(SocketConfig.custom().setTcpNoDelay(builder.tcpNoDelay)
+				.setSoKeepAlive(true).build());
+		return connectionManager;
+	}
+
+	/**
+	 * 定时关闭过期和空闲的连接
+	 */
+	private static ScheduledExecutorService startConnectionEvictor(
+			final PoolingHttpClientConnectionManager connectionManager, final long idleConnectionTimeout) {
+		final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "opentsdb-connection-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long period = Math.max(idleConnectionTimeout / 2, 1000L);
+		evictor.scheduleWithFixedDelay(() -> {
+			connectionManager.closeExpiredConnections();
+			connectionManager.closeIdleConnections(idleConnectionTimeout, TimeUnit.MILLISECONDS);
+		}, period, period, TimeUnit.MILLISECONDS);
+		return evictor;
+	}
+
+	@Override
+	public void post(String path, byte[] body) throws IOException {
+		final Response response = apiResource.path(path).request()
+				.post(Entity.entity(body, MediaType.APPLICATION_JSON));
+		final int status = response.getStatus();
+		if (status >= 400) {
+			throw new OpenTsdbException(status, readError(response));
+		}
+		// 关闭响应，连接才能归还到连接池中复用
+		response.close();
+	}
+
+	@Override
+	public InputStream stream(String path, byte[] body) throws IOException {
+		final Response response = apiResource.path(path).request()
+				.post(Entity.entity(body, MediaType.APPLICATION_JSON));
+		final int status = response.getStatus();
+		if (status >= 400) {
+			throw new OpenTsdbException(status, readError(response));
+		}
+		// 关闭实体流时会同时关闭响应
+		return response.readEntity(InputStream.class);
+	}
+
+	/**
+	 * 读取错误响应体作为异常信息，与{@link JdkHttpTransport}一致，读取后关闭响应
+	 */
+	private static String readError(Response response) {
+		try {
+			final String message = response.hasEntity() ? response.readEntity(String.class) : null;
+			if (message != null && message.length() > JdkHttpTransport.MAX_ERROR_MESSAGE_LENGTH) {
+				return message.substring(0, JdkHttpTransport.MAX_ERROR_MESSAGE_LENGTH);
+			}
+			return message;
+		} catch (RuntimeException e) {
+			return null;
+		} finally {
+			response.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (connectionEvictor != null) {
+			connectionEvictor.shutdownNow();
+		}
+		if (client != null) {
+			client.close();
+		}
+	}
+
+}
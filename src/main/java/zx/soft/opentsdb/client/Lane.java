@@ -0,0 +1,144 @@
+package zx.soft.opentsdb.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import zx.soft.opentsdb.metric.GlobPattern;
+
+/**
+ * 发送优先级通道
+ * <p/>
+ * 每个通道在每个分片中有独立的有界队列，发送线程按权重轮流从各通道取批次（平滑加权轮询），
+ * 队列满时按通道各自的策略处理。告警、SLO等关键指标放在高权重、阻塞策略的通道中，
+ * 大量的调试指标放在低权重、丢弃策略的通道中，TSD变慢时先丢弃后者，前者不会排在后者后面。
+ * 数据点按Metric名匹配通道（支持通配符*，按添加顺序第一个匹配的通道生效），
+ * 也可以在{@link OpenTsdbClient#send(java.util.Collection, String)}时直接指定通道。
+ *
+ * @author wanggang
+ *
+ */
+public class Lane {
+
+	// 默认通道名，未匹配任何通道的数据点进入该通道
+	public static final String DEFAULT = "default";
+
+	/**
+	 * 队列满时的处理策略
+	 */
+	public enum DropPolicy {
+		// 等待队列有空位，将背压传递给调用方
+		BLOCK,
+		// 丢弃新数据点
+		DROP_NEWEST,
+		// 丢弃队列中最早的数据点
+		DROP_OLDEST
+	}
+
+	private final String name;
+
+	private final int weight;
+
+	private final int queueCapacity;
+
+	private final DropPolicy dropPolicy;
+
+	// Metric名模式
+	private final List<GlobPattern> patterns;
+
+	private Lane(Builder builder) {
+		this.name = builder.name;
+		this.weight = builder.weight;
+		this.queueCapacity = builder.queueCapacity;
+		this.dropPolicy = builder.dropPolicy;
+		final List<GlobPattern> compiled = new ArrayList<>();
+		for (String pattern : builder.patterns) {
+			compiled.add(GlobPattern.compile(pattern));
+		}
+		this.patterns = Collections.unmodifiableList(compiled);
+	}
+
+	public static Builder named(String name) {
+		return new Builder(name);
+	}
+
+	public static class Builder {
+
+		private final String name;
+		private int weight = 1;
+		private int queueCapacity = OpenTsdbClient.DEFAULT_SHARD_QUEUE_CAPACITY;
+		private DropPolicy dropPolicy = DropPolicy.BLOCK;
+		private final List<String> patterns = new ArrayList<>();
+
+		private Builder(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * 调度权重，通道都有数据时按权重比例分配发送批次
+		 */
+		public Builder withWeight(int weight) {
+			if (weight < 1) {
+				throw new IllegalArgumentException("Weight must be positive: " + weight);
+			}
+			this.weight = weight;
+			return this;
+		}
+
+		/**
+		 * 每个分片中该通道的队列容量
+		 */
+		public Builder withQueueCapacity(int queueCapacity) {
+			this.queueCapacity = queueCapacity;
+			return this;
+		}
+
+		public Builder withDropPolicy(DropPolicy dropPolicy) {
+			this.dropPolicy = dropPolicy;
+			return this;
+		}
+
+		/**
+		 * 匹配的Metric名模式，支持通配符*
+		 */
+		public Builder matching(String... patterns) {
+			this.patterns.addAll(Arrays.asList(patterns));
+			return this;
+		}
+
+		public Lane build() {
+			return new Lane(this);
+		}
+
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public DropPolicy getDropPolicy() {
+		return dropPolicy;
+	}
+
+	/**
+	 * Metric名是否匹配该通道
+	 */
+	boolean matches(String metric) {
+		for (GlobPattern pattern : patterns) {
+			if (pattern.matches(metric)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,84 @@
+package zx.soft.opentsdb.client;
+
+/**
+ * 基于开放寻址的long集合，元素不装箱
+ *
+ * @author wanggang
+ *
+ */
+class LongHashSet {
+
+	// 0作为空槽位标记，单独记录是否包含0
+	private long[] table;
+
+	private boolean containsZero = false;
+
+	private int size = 0;
+
+	LongHashSet(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		this.table = new long[capacity];
+	}
+
+	/**
+	 * 添加元素
+	 *
+	 * @return 元素原来不存在时返回true
+	 */
+	boolean add(long value) {
+		if (value == 0) {
+			if (containsZero) {
+				return false;
+			}
+			containsZero = true;
+			size++;
+			return true;
+		}
+		final int index = indexOf(table, value);
+		if (table[index] == value) {
+			return false;
+		}
+		table[index] = value;
+		if (++size * 2 > table.length) {
+			rehash();
+		}
+		return true;
+	}
+
+	boolean contains(long value) {
+		if (value == 0) {
+			return containsZero;
+		}
+		return table[indexOf(table, value)] == value;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * 返回value所在的槽位，不存在时返回应插入的空槽位
+	 */
+	private static int indexOf(long[] table, long value) {
+		final int mask = table.length - 1;
+		int index = (int) (value ^ (value >>> 32)) & mask;
+		while (table[index] != 0 && table[index] != value) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void rehash() {
+		final long[] newTable = new long[table.length * 2];
+		for (long value : table) {
+			if (value != 0) {
+				newTable[indexOf(newTable, value)] = value;
+			}
+		}
+		table = newTable;
+	}
+
+}
@@ -0,0 +1,282 @@
+package zx.soft.opentsdb.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+/**
+ * Metric名和tag的校验与清洗
+ * <p/>
+ * OpenTSDB只接受a-z、A-Z、0-9、-、_、.、/和Unicode字母，一个非法数据点会使整个/api/put请求失败或变慢。
+ * 数据离开客户端之前按字符表逐字符检查，非法字符替换为{@link #DEFAULT_REPLACEMENT}或丢弃数据点；
+ * 每个不同的字符串只检查一次，结果缓存后稳定状态下每个字符串只有一次哈希表查找。
+ * 值为NaN或无穷大的数据点同样会被TSD拒绝，总是丢弃。
+ *
+ * @author wanggang
+ *
+ */
+public class MetricSanitizer {
+
+	private static final Logger logger = LoggerFactory.getLogger(MetricSanitizer.class);
+
+	// 默认的替换字符
+	public static final char DEFAULT_REPLACEMENT = '_';
+
+	// 默认缓存的字符串个数上限，超过后清空重建
+	public static final int DEFAULT_MAX_CACHED = 100_000;
+
+	// 丢弃的日志间隔（次数）
+	private static final long LOG_EVERY_DROPS = 1000;
+
+	// ASCII字符是否合法
+	private static final boolean[] ALLOWED = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			ALLOWED[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			ALLOWED[c] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			ALLOWED[c] = true;
+		}
+		ALLOWED['-'] = true;
+		ALLOWED['_'] = true;
+		ALLOWED['.'] = true;
+		ALLOWED['/'] = true;
+	}
+
+	// 非法且无法替换的字符串在缓存中的标记
+	private static final String INVALID = new String("");
+
+	// 合法字符串在缓存中的标记，查找时返回传入的字符串本身，调用方按引用判断是否被改写
+	private static final String VALID = new String("");
+
+	/**
+	 * 非法字符的处理策略
+	 */
+	public enum Policy {
+		// 替换非法字符
+		REPLACE,
+		// 丢弃数据点
+		DROP
+	}
+
+	private final Policy policy;
+
+	private final char replacement;
+
+	private final int maxCached;
+
+	// 原字符串到清洗结果的缓存，合法的字符串映射到VALID
+	private final ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<>();
+
+	private final AtomicLong replaced = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private MetricSanitizer(Builder builder) {
+		this.policy = builder.policy;
+		this.replacement = builder.replacement;
+		this.maxCached = builder.maxCached;
+	}
+
+	public static Builder withPolicy(Policy policy) {
+		return new Builder(policy);
+	}
+
+	public static class Builder {
+
+		private final Policy policy;
+		private char replacement = DEFAULT_REPLACEMENT;
+		private int maxCached = DEFAULT_MAX_CACHED;
+
+		private Builder(Policy policy) {
+			this.policy = policy;
+		}
+
+		/**
+		 * 替换非法字符使用的字符，必须是合法字符
+		 */
+		public Builder withReplacement(char replacement) {
+			if (!isAllowed(replacement)) {
+				throw new IllegalArgumentException("Replacement is not allowed by OpenTSDB: " + replacement);
+			}
+			this.replacement = replacement;
+			return this;
+		}
+
+		/**
+		 * 缓存的字符串个数上限
+		 */
+		public Builder withMaxCached(int maxCached) {
+			this.maxCached = maxCached;
+			return this;
+		}
+
+		public MetricSanitizer build() {
+			return new MetricSanitizer(this);
+		}
+
+	}
+
+	/**
+	 * 字符是否为OpenTSDB允许的字符
+	 */
+	public static boolean isAllowed(char c) {
+		return c < ALLOWED.length ? ALLOWED[c] : Character.isLetter(c);
+	}
+
+	/**
+	 * 字符串是否非空且只包含OpenTSDB允许的字符
+	 */
+	public static boolean isValid(String value) {
+		if (value == null || value.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (!isAllowed(value.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 过滤Metric集合
+	 *
+	 * @return 全部合法时返回原集合，否则返回清洗后的列表，保持原来的顺序
+	 */
+	public Collection<OpenTsdbMetric> filter(Collection<OpenTsdbMetric> metrics) {
+		List<OpenTsdbMetric> result = null;
+		int index = 0;
+		for (OpenTsdbMetric metric : metrics) {
+			final OpenTsdbMetric checked = check(metric);
+			if (result == null && checked != metric) {
+				// 第一个需要修改的数据点，复制之前已检查的部分
+				result = new ArrayList<>(metrics.size());
+				final Iterator<OpenTsdbMetric> iterator = metrics.iterator();
+				for (int i = 0; i < index; i++) {
+					result.add(iterator.next());
+				}
+			}
+			if (result != null && checked != null) {
+				result.add(checked);
+			}
+			index++;
+		}
+		return result == null ? metrics : result;
+	}
+
+	/**
+	 * 检查一条数据
+	 *
+	 * @return 合法时返回原数据，被替换时返回新数据，丢弃时返回null
+	 */
+	public OpenTsdbMetric check(OpenTsdbMetric metric) {
+		if (!isFinite(metric.getValue())) {
+			return drop(metric, "value is null or not finite");
+		}
+		final String name = sanitize(metric.getMetric());
+		if (name == INVALID) {
+			return drop(metric, "invalid metric name");
+		}
+		boolean changed = name != metric.getMetric();
+		for (Entry<String, String> tag : metric.getTags().entrySet()) {
+			final String key = sanitize(tag.getKey());
+			final String value = sanitize(tag.getValue());
+			if (key == INVALID || value == INVALID) {
+				return drop(metric, "invalid tag " + tag.getKey() + "=" + tag.getValue());
+			}
+			changed |= key != tag.getKey() || value != tag.getValue();
+		}
+		if (!changed) {
+			return metric;
+		}
+		// 结果都在缓存中，第二遍只有查找
+		final Map<String, String> tags = new TreeMap<>();
+		for (Entry<String, String> tag : metric.getTags().entrySet()) {
+			tags.put(sanitize(tag.getKey()), sanitize(tag.getValue()));
+		}
+		replaced.incrementAndGet();
+		return OpenTsdbMetric.named(name).withTimestamp(metric.getTimestamp()).withValue(metric.getValue())
+				.withTags(tags).build();
+	}
+
+	/**
+	 * 被替换过字符的数据点个数
+	 */
+	public long getReplaced() {
+		return replaced.get();
+	}
+
+	/**
+	 * 被丢弃的数据点个数
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * 清洗一个字符串，合法时返回传入的字符串本身（而不是缓存中内容相同的另一个实例），无法清洗时返回{@link #INVALID}
+	 */
+	private String sanitize(String value) {
+		if (value == null) {
+			return INVALID;
+		}
+		String result = cache.get(value);
+		if (result == null) {
+			result = compute(value);
+			if (cache.size() >= maxCached) {
+				cache.clear();
+			}
+			cache.put(value, result);
+		}
+		return result == VALID ? value : result;
+	}
+
+	private String compute(String value) {
+		if (isValid(value)) {
+			return VALID;
+		}
+		if (policy == Policy.DROP || value.isEmpty()) {
+			return INVALID;
+		}
+		final char[] chars = value.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			if (!isAllowed(chars[i])) {
+				chars[i] = replacement;
+			}
+		}
+		return new String(chars);
+	}
+
+	private static boolean isFinite(Object value) {
+		if (value instanceof Double || value instanceof Float) {
+			final double d = ((Number) value).doubleValue();
+			return !Double.isNaN(d) && !Double.isInfinite(d);
+		}
+		return value != null;
+	}
+
+	private OpenTsdbMetric drop(OpenTsdbMetric metric, String reason) {
+		if (dropped.incrementAndGet() % LOG_EVERY_DROPS == 1) {
+			logger.warn("Dropped point of metric {}: {}, {} points dropped so far.", metric.getMetric(), reason,
+					dropped.get());
+		}
+		return null;
+	}
+
+}
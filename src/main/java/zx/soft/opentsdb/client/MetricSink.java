@@ -0,0 +1,30 @@
+package zx.soft.opentsdb.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 数据点的输出目标，如另一个TSD、telnet接口或本地文件
+ * <p/>
+ * 通过{@link OpenTsdbClient#addSink}注册后，客户端发送的每一批数据只编码一次，
+ * 同一个{@link EncodedBatch}交给所有输出目标；每个输出目标有自己的队列和线程，慢的目标不会阻塞其他目标。
+ *
+ * @author wanggang
+ *
+ */
+public interface MetricSink extends Closeable {
+
+	/**
+	 * 写入一批数据，在该输出目标自己的线程中调用
+	 *
+	 * @param batch 已编码的一批数据，不能修改
+	 */
+	void write(EncodedBatch batch) throws IOException;
+
+	/**
+	 * 关闭输出目标，释放连接或文件；关闭超时时可能在{@link #write}返回之前调用，实现需要自行同步
+	 */
+	@Override
+	void close();
+
+}
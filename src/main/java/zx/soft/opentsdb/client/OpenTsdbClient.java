@@ -1,32 +1,44 @@
 package zx.soft.opentsdb.client;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.MediaType;
-
-import org.glassfish.jersey.client.ClientProperties;
-import org.glassfish.jersey.jackson.JacksonFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import zx.soft.opentsdb.metric.OpenTsdbHistogram;
 import zx.soft.opentsdb.metric.OpenTsdbMetric;
+import zx.soft.opentsdb.query.LastQuery;
+import zx.soft.opentsdb.query.OpenTsdbQuery;
+import zx.soft.opentsdb.query.QueryCache;
+import zx.soft.opentsdb.query.QueryResponseParser;
+import zx.soft.opentsdb.query.QueryResult;
 import zx.soft.utils.log.LogbackUtil;
 
 /**
- * 基于jersey开发OpenTSDB的REST客户端
+ * OpenTSDB的REST客户端，默认基于jersey，也可以选择基于JDK的轻量传输层
  * <p/>
  * {@link http://opentsdb.net/docs/build/html/api_http/index.html#version-1-x-to-2-x}
  *
  * @author wanggang
  *
  */
-public class OpenTsdbClient {
+public class OpenTsdbClient implements Closeable {
 
 	private static final Logger logger = LoggerFactory.getLogger(OpenTsdbClient.class);
 
@@ -42,27 +54,171 @@ public class OpenTsdbClient {
 	// 读超时
 	public static final int READ_TIMEOUT_DEFAULT_MS = 5000;
 
-	private final WebTarget apiResource;
+	// 连接池最大连接数
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+	// 每个路由（即每个TSD节点）的最大连接数
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+
+	// 空闲连接回收时间
+	public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MS = 30_000L;
+
+	// 连接最长存活时间（keep-alive），0表示不限制
+	public static final long DEFAULT_KEEP_ALIVE_MS = 0L;
+
+	// 分片发送时每个分片队列的容量
+	public static final int DEFAULT_SHARD_QUEUE_CAPACITY = 10_000;
+
+	// 每个输出目标的队列容量（批次数）
+	public static final int DEFAULT_SINK_QUEUE_CAPACITY = 1000;
+
+	// 没有服务URL时限速使用的节点标识
+	private static final String DEFAULT_ENDPOINT = "default";
+
+	// 关闭时等待分片队列发送完成的时间
+	private static final long CLOSE_TIMEOUT_MS = 5000L;
+
+	private final OpenTsdbTransport transport;
 
 	// 批量大小上限
-	private int batchSizeLimit = DEFAULT_BATCH_SIZE_LIMIT;
+	private volatile int batchSizeLimit = DEFAULT_BATCH_SIZE_LIMIT;
 
-	private OpenTsdbClient(WebTarget apiResource) {
-		this.apiResource = apiResource;
-	}
+	// 查询结果缓存，为null时不缓存
+	private volatile QueryCache queryCache;
+
+	// Metric名和tag清洗，为null时不检查
+	private volatile MetricSanitizer sanitizer;
+
+	// 基数保护，为null时不检查
+	private volatile CardinalityGuard cardinalityGuard;
+
+	// 自适应批量控制，为null时使用固定的批量大小串行发送
+	private volatile AdaptiveBatchController adaptiveBatching;
+
+	// 自适应批量的发送线程
+	private ExecutorService sendExecutor;
+
+	// 按时间序列分片的发送队列，为null时在调用线程中发送
+	private ShardedDispatcher dispatcher;
 
-	private OpenTsdbClient(String baseURL, Integer connectionTimeout, Integer readTimeout) {
-		final Client client = ClientBuilder.newBuilder().register(JacksonFeature.class).build();
-		client.property(ClientProperties.CONNECT_TIMEOUT, connectionTimeout);
-		client.property(ClientProperties.READ_TIMEOUT, readTimeout);
+	// 发送限速，为null时不限制
+	private volatile RateLimiter rateLimiter;
 
-		this.apiResource = client.target(baseURL);
+	// 批内合并方式，为null时不合并
+	private volatile Coalescer.Mode coalescing;
+
+	// 限速使用的节点标识
+	private final String endpoint;
+
+	// 其他输出目标，与TSD共用同一次编码
+	private final List<SinkQueue> sinks = new CopyOnWriteArrayList<>();
+
+	private OpenTsdbClient(OpenTsdbTransport transport, String endpoint) {
+		this.transport = transport;
+		this.endpoint = endpoint;
 	}
 
 	public void setBatchSizeLimit(int batchSizeLimit) {
 		this.batchSizeLimit = batchSizeLimit;
 	}
 
+	public void setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+
+	public void setSanitizer(MetricSanitizer sanitizer) {
+		this.sanitizer = sanitizer;
+	}
+
+	public void setCardinalityGuard(CardinalityGuard cardinalityGuard) {
+		this.cardinalityGuard = cardinalityGuard;
+	}
+
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * 批内合并，同一时间序列同一时间戳的多个数据点在发送前合并为一个，为null时不合并
+	 */
+	public void setCoalescing(Coalescer.Mode coalescing) {
+		this.coalescing = coalescing;
+	}
+
+	/**
+	 * 增加输出目标，之后发送的每批数据编码后同时交给该目标，使用默认的队列容量
+	 */
+	public void addSink(MetricSink sink) {
+		addSink(sink, DEFAULT_SINK_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * 增加输出目标，该目标有自己的队列和写入线程，队列满时丢弃新的批次
+	 *
+	 * @param sink 输出目标，关闭客户端时一起关闭
+	 * @param queueCapacity 队列容量（批次数）
+	 */
+	public synchronized void addSink(MetricSink sink, int queueCapacity) {
+		sinks.add(new SinkQueue(sink, queueCapacity, "opentsdb-sink-" + sinks.size()));
+	}
+
+	/**
+	 * 输出目标队列满时丢弃的批次数
+	 */
+	public long getDroppedBatches(MetricSink sink) {
+		for (SinkQueue queue : sinks) {
+			if (queue.getSink() == sink) {
+				return queue.getDropped();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * 开启自适应批量，批量大小和并发请求数由控制器决定，{@link #setBatchSizeLimit}不再生效
+	 */
+	public synchronized void setAdaptiveBatching(AdaptiveBatchController adaptiveBatching) {
+		if (sendExecutor != null) {
+			sendExecutor.shutdown();
+			sendExecutor = null;
+		}
+		this.adaptiveBatching = adaptiveBatching;
+		if (adaptiveBatching != null) {
+			final AtomicInteger threadCount = new AtomicInteger();
+			sendExecutor = Executors.newFixedThreadPool(adaptiveBatching.getMaxConcurrency(), r -> {
+				final Thread thread = new Thread(r, "opentsdb-sender-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * 开启按时间序列分片发送：数据点按Metric名和Tags分配到多个队列，每个队列一个线程并行发送，
+	 * 同一时间序列的数据点保持顺序。开启后{@link #send}只负责入队，队列满时阻塞。
+	 *
+	 * @param shards 分片数，一般与CPU核数或TSD节点的连接数相当
+	 * @param queueCapacity 每个分片队列的容量
+	 */
+	public void setSharding(int shards, int queueCapacity) {
+		setSharding(shards, queueCapacity, Collections.<Lane> emptyList());
+	}
+
+	/**
+	 * 开启按时间序列分片发送，并按优先级通道调度，见{@link Lane}
+	 *
+	 * @param shards 分片数
+	 * @param queueCapacity 未单独配置{@link Lane#DEFAULT}通道时，默认通道的队列容量
+	 * @param lanes 优先级通道
+	 */
+	public synchronized void setSharding(int shards, int queueCapacity, List<Lane> lanes) {
+		if (dispatcher != null) {
+			dispatcher.close(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		}
+		dispatcher = new ShardedDispatcher(shards, ShardedDispatcher.withDefaultLane(lanes, queueCapacity),
+				this::currentBatchSize, this::sendShardBatch);
+	}
+
 	/**
 	 * 基于OpenTSDB服务端url初始化
 	 *
@@ -74,20 +230,49 @@ public class OpenTsdbClient {
 	}
 
 	/**
-	 * 通过基本的WebResource创建客户端
+	 * 通过自定义的传输层创建客户端
 	 *
-	 * @param apiResource
+	 * @param transport
 	 * @return
 	 */
-	public static OpenTsdbClient create(WebTarget apiResource) {
-		return new OpenTsdbClient(apiResource);
+	public static OpenTsdbClient create(OpenTsdbTransport transport) {
+		return new OpenTsdbClient(transport, DEFAULT_ENDPOINT);
+	}
+
+	/**
+	 * 传输层实现
+	 */
+	public enum TransportType {
+		// 基于jersey，支持Apache HttpClient连接池
+		JERSEY,
+		// 基于JDK的HttpURLConnection，不依赖jersey和Jackson，启动快、占用内存少
+		JDK
 	}
 
 	public static class Builder {
 
-		private Integer connectionTimeout = CONN_TIMEOUT_DEFAULT_MS;
-		private Integer readTimeout = READ_TIMEOUT_DEFAULT_MS;
-		private final String baseUrl;
+		// 以下配置供传输层实现读取
+		Integer connectionTimeout = CONN_TIMEOUT_DEFAULT_MS;
+		Integer readTimeout = READ_TIMEOUT_DEFAULT_MS;
+		boolean pooled = false;
+		int maxConnections = DEFAULT_MAX_CONNECTIONS;
+		int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+		long idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT_MS;
+		long keepAlive = DEFAULT_KEEP_ALIVE_MS;
+		boolean tcpNoDelay = true;
+		final String baseUrl;
+		private TransportType transportType = TransportType.JERSEY;
+		private QueryCache queryCache;
+		private MetricSanitizer sanitizer;
+		private CardinalityGuard cardinalityGuard;
+		private AdaptiveBatchController adaptiveBatching;
+		private int shards;
+		private int shardQueueCapacity = DEFAULT_SHARD_QUEUE_CAPACITY;
+		private RateLimiter rateLimiter;
+		private Coalescer.Mode coalescing;
+		private final List<Lane> lanes = new ArrayList<>();
+		private final List<MetricSink> sinks = new ArrayList<>();
+		private int sinkQueueCapacity = DEFAULT_SINK_QUEUE_CAPACITY;
 
 		public Builder(String baseUrl) {
 			this.baseUrl = baseUrl;
@@ -103,8 +288,177 @@ public class OpenTsdbClient {
 			return this;
 		}
 
+		/**
+		 * jersey使用基于Apache HttpClient的连接池，替代默认的HttpUrlConnector
+		 */
+		public Builder withPooledConnections() {
+			this.pooled = true;
+			return this;
+		}
+
+		/**
+		 * 连接池最大连接数
+		 */
+		public Builder withMaxConnections(int maxConnections) {
+			this.maxConnections = maxConnections;
+			return this;
+		}
+
+		/**
+		 * 每个TSD节点的最大连接数
+		 */
+		public Builder withMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+			this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+			return this;
+		}
+
+		/**
+		 * 空闲超过该时间的连接会被回收
+		 */
+		public Builder withIdleConnectionTimeout(long idleConnectionTimeout) {
+			this.idleConnectionTimeout = idleConnectionTimeout;
+			return this;
+		}
+
+		/**
+		 * 连接最长存活时间，超过后不再复用，0表示不限制
+		 */
+		public Builder withKeepAlive(long keepAlive) {
+			this.keepAlive = keepAlive;
+			return this;
+		}
+
+		/**
+		 * 是否开启TCP_NODELAY，默认开启
+		 */
+		public Builder withTcpNoDelay(boolean tcpNoDelay) {
+			this.tcpNoDelay = tcpNoDelay;
+			return this;
+		}
+
+		/**
+		 * 选择传输层实现，默认使用jersey；连接池相关配置只对jersey有效
+		 */
+		public Builder withTransport(TransportType transportType) {
+			this.transportType = transportType;
+			return this;
+		}
+
+		/**
+		 * 查询结果缓存，历史时间桶的数据从本地读取
+		 */
+		public Builder withQueryCache(QueryCache queryCache) {
+			this.queryCache = queryCache;
+			return this;
+		}
+
+		/**
+		 * 发送前校验并清洗Metric名和tag，避免一个非法数据点使整批请求失败
+		 */
+		public Builder withSanitizer(MetricSanitizer sanitizer) {
+			this.sanitizer = sanitizer;
+			return this;
+		}
+
+		/**
+		 * 基数保护，限制每个Metric的时间序列数和tag取值个数
+		 */
+		public Builder withCardinalityGuard(CardinalityGuard cardinalityGuard) {
+			this.cardinalityGuard = cardinalityGuard;
+			return this;
+		}
+
+		/**
+		 * 自适应批量，按TSD的响应延迟和错误调整批量大小和并发请求数
+		 */
+		public Builder withAdaptiveBatching(AdaptiveBatchController adaptiveBatching) {
+			this.adaptiveBatching = adaptiveBatching;
+			return this;
+		}
+
+		/**
+		 * 按时间序列分片并行发送，见{@link OpenTsdbClient#setSharding}
+		 */
+		public Builder withShards(int shards) {
+			this.shards = shards;
+			return this;
+		}
+
+		/**
+		 * 每个分片队列的容量
+		 */
+		public Builder withShardQueueCapacity(int shardQueueCapacity) {
+			this.shardQueueCapacity = shardQueueCapacity;
+			return this;
+		}
+
+		/**
+		 * 发送限速，同一个限速器可以被多个客户端共享
+		 */
+		public Builder withRateLimiter(RateLimiter rateLimiter) {
+			this.rateLimiter = rateLimiter;
+			return this;
+		}
+
+		/**
+		 * 批内合并同一时间序列同一时间戳的数据点
+		 */
+		public Builder withCoalescing(Coalescer.Mode coalescing) {
+			this.coalescing = coalescing;
+			return this;
+		}
+
+		/**
+		 * 优先级通道，未设置分片数时使用一个分片
+		 */
+		public Builder withLanes(Lane... lanes) {
+			this.lanes.addAll(Arrays.asList(lanes));
+			return this;
+		}
+
+		/**
+		 * 其他输出目标，如另一个TSD、telnet接口或本地文件，每批数据只编码一次
+		 */
+		public Builder withSink(MetricSink sink) {
+			this.sinks.add(sink);
+			return this;
+		}
+
+		/**
+		 * 每个输出目标的队列容量（批次数）
+		 */
+		public Builder withSinkQueueCapacity(int sinkQueueCapacity) {
+			this.sinkQueueCapacity = sinkQueueCapacity;
+			return this;
+		}
+
 		public OpenTsdbClient create() {
-			return new OpenTsdbClient(baseUrl, connectionTimeout, readTimeout);
+			final OpenTsdbClient client = new OpenTsdbClient(createTransport(), baseUrl);
+			client.setQueryCache(queryCache);
+			client.setSanitizer(sanitizer);
+			client.setCardinalityGuard(cardinalityGuard);
+			client.setRateLimiter(rateLimiter);
+			client.setCoalescing(coalescing);
+			if (adaptiveBatching != null) {
+				client.setAdaptiveBatching(adaptiveBatching);
+			}
+			if (shards > 0 || !lanes.isEmpty()) {
+				client.setSharding(Math.max(shards, 1), shardQueueCapacity, lanes);
+			}
+			for (MetricSink sink : sinks) {
+				client.addSink(sink, sinkQueueCapacity);
+			}
+			return client;
+		}
+
+		/**
+		 * jersey相关的类只在选择jersey传输层时加载，排除jersey依赖后JDK传输层仍可用
+		 */
+		OpenTsdbTransport createTransport() {
+			if (transportType == TransportType.JDK) {
+				return new JdkHttpTransport(baseUrl, connectionTimeout, readTimeout);
+			}
+			return new JerseyTransport(this);
 		}
 
 	}
@@ -121,11 +475,53 @@ public class OpenTsdbClient {
 	/**
 	 * 发送Metric集合数据到OpenTSDB中
 	 *
-	 * @param metrics 集合数据
+	 * @param metrics 集合数据，开启批内合并时同一时间序列同一时间戳以后出现的为准
+	 */
+	public void send(Collection<OpenTsdbMetric> metrics) {
+		send(metrics, null);
+	}
+
+	/**
+	 * 保留原来的签名，兼容按旧版本编译的调用方
 	 */
 	public void send(Set<OpenTsdbMetric> metrics) {
-		if (batchSizeLimit > 0 && metrics.size() > batchSizeLimit) {
-			final Set<OpenTsdbMetric> smallMetrics = new HashSet<>();
+		send(metrics, null);
+	}
+
+	/**
+	 * 通过指定的优先级通道发送，例如每个Reportable或每个调用方使用各自的通道；
+	 * 同一时间序列应始终使用同一个通道，否则不能保证顺序。
+	 * 开启分片发送时，未配置的通道名抛出IllegalArgumentException；未开启分片发送时没有通道，
+	 * 不校验通道名，直接在调用线程中发送
+	 *
+	 * @param metrics 集合数据
+	 * @param lane 通道名，为null时按Metric名匹配
+	 */
+	public void send(Collection<OpenTsdbMetric> metrics, String lane) {
+		if (sanitizer != null) {
+			metrics = sanitizer.filter(metrics);
+		}
+		if (cardinalityGuard != null) {
+			metrics = cardinalityGuard.filter(metrics);
+		}
+		final Coalescer.Mode mode = coalescing;
+		if (mode != null) {
+			metrics = Coalescer.coalesce(metrics, mode);
+		}
+		final AdaptiveBatchController controller;
+		final ExecutorService executor;
+		final ShardedDispatcher shardedDispatcher;
+		synchronized (this) {
+			controller = adaptiveBatching;
+			executor = sendExecutor;
+			shardedDispatcher = dispatcher;
+		}
+		if (shardedDispatcher != null) {
+			shardedDispatcher.dispatch(metrics, lane);
+		} else if (controller != null) {
+			sendAdaptive(metrics, controller, executor);
+		} else if (batchSizeLimit > 0 && metrics.size() > batchSizeLimit) {
+			final List<OpenTsdbMetric> smallMetrics = new ArrayList<>(batchSizeLimit);
 			for (final OpenTsdbMetric metric : metrics) {
 				smallMetrics.add(metric);
 				if (smallMetrics.size() >= batchSizeLimit) {
@@ -139,12 +535,116 @@ public class OpenTsdbClient {
 		}
 	}
 
+	/**
+	 * 按控制器当前的批量大小拆分，并发发送，所有批次结束后返回
+	 */
+	private void sendAdaptive(Collection<OpenTsdbMetric> metrics, AdaptiveBatchController controller,
+			ExecutorService executor) {
+		final List<OpenTsdbMetric> list = new ArrayList<>(metrics);
+		final List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int i = 0; i < list.size();) {
+				final List<OpenTsdbMetric> batch = list.subList(i, Math.min(i + controller.getBatchSize(),
+						list.size()));
+				i += batch.size();
+				final long ticket = controller.acquire();
+				try {
+					futures.add(executor.submit(() -> postAdaptive(batch, controller, ticket)));
+				} catch (RejectedExecutionException e) {
+					// 发送线程池已被替换或关闭，归还并发名额，剩余批次不再发送
+					controller.release();
+					logger.error("Send to OpenTSDB endpoint rejected, Exception: {}.", LogbackUtil.expection2Str(e));
+					break;
+				}
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.error("Send to OpenTSDB endpoint failed, Exception: {}.", LogbackUtil.expection2Str(e));
+		}
+	}
+
+	/**
+	 * 发送一批数据，并将结果反馈给自适应批量控制器
+	 */
+	private void postAdaptive(List<OpenTsdbMetric> batch, AdaptiveBatchController controller, long ticket) {
+		try {
+			final byte[] body = OpenTsdbMetric.serializeJson(batch);
+			fanOut(batch, body);
+			if (!admit(batch.size(), body)) {
+				return;
+			}
+			final long start = System.nanoTime();
+			transport.post("/api/put", body);
+			controller.onSuccess(ticket, System.nanoTime() - start);
+		} catch (Exception e) {
+			controller.onFailure(ticket, e);
+			logger.error("Send to OpenTSDB endpoint failed, Exception: {}.", LogbackUtil.expection2Str(e));
+		} finally {
+			controller.release();
+		}
+	}
+
+	/**
+	 * 分片队列每批的最大数据点数
+	 */
+	private int currentBatchSize() {
+		final AdaptiveBatchController controller = adaptiveBatching;
+		if (controller != null) {
+			return controller.getBatchSize();
+		}
+		return batchSizeLimit > 0 ? batchSizeLimit : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * 分片队列的发送线程调用，并发数同样受自适应批量控制
+	 */
+	private void sendShardBatch(List<OpenTsdbMetric> batch) {
+		final AdaptiveBatchController controller = adaptiveBatching;
+		if (controller == null) {
+			sendHelper(batch);
+			return;
+		}
+		try {
+			postAdaptive(batch, controller, controller.acquire());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 通道队列满或客户端关闭后丢弃的数据点数
+	 */
+	public long getDroppedPoints(String lane) {
+		final ShardedDispatcher shardedDispatcher;
+		synchronized (this) {
+			shardedDispatcher = dispatcher;
+		}
+		return shardedDispatcher == null ? 0 : shardedDispatcher.getDropped(lane);
+	}
+
+	/**
+	 * 等待分片队列中的数据发送完成，未开启分片发送时直接返回
+	 *
+	 * @return 超时前是否全部发送完成
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		final ShardedDispatcher shardedDispatcher;
+		synchronized (this) {
+			shardedDispatcher = dispatcher;
+		}
+		return shardedDispatcher == null || shardedDispatcher.flush(timeout, unit);
+	}
+
 	/**
 	 * 发送帮助信息
 	 *
 	 * @param metrics Metric集合数据
 	 */
-	private void sendHelper(Set<OpenTsdbMetric> metrics) {
+	private void sendHelper(Collection<OpenTsdbMetric> metrics) {
 		/*
 		 * 如果需要绑定指定的API版本，参考：http://opentsdb.net/docs/build/html/api_http/index.html#api-versioning
 		 * "如果没有提供明确的版本，... 默认使用最新的版本。"
@@ -152,12 +652,108 @@ public class OpenTsdbClient {
 		 */
 		if (!metrics.isEmpty()) {
 			try {
-				final Entity<?> entity = Entity.entity(metrics, MediaType.APPLICATION_JSON);
-				apiResource.path("/api/put").request().post(entity);
+				final byte[] body = OpenTsdbMetric.serializeJson(metrics);
+				fanOut(metrics, body);
+				if (admit(metrics.size(), body)) {
+					transport.post("/api/put", body);
+				}
 			} catch (Exception e) {
 				logger.error("Send to OpenTSDB endpoint failed, Exception: {}.", LogbackUtil.expection2Str(e));
 			}
 		}
 	}
 
+	/**
+	 * 将编码好的一批数据交给其他输出目标，不受TSD的限速和发送结果影响
+	 */
+	private void fanOut(Collection<OpenTsdbMetric> metrics, byte[] body) {
+		if (sinks.isEmpty()) {
+			return;
+		}
+		final EncodedBatch batch = new EncodedBatch(metrics, body);
+		for (SinkQueue queue : sinks) {
+			queue.offer(batch);
+		}
+	}
+
+	/**
+	 * 按限速取令牌，令牌不足且不再等待时该批数据被丢弃
+	 */
+	private boolean admit(int points, byte[] body) {
+		final RateLimiter limiter = rateLimiter;
+		return limiter == null || limiter.acquire(endpoint, points, body.length);
+	}
+
+	/**
+	 * 发送分桶直方图数据到OpenTSDB中，需要OpenTSDB 2.4及以上版本
+	 *
+	 * @param histograms 直方图集合
+	 */
+	public void sendHistograms(Collection<OpenTsdbHistogram> histograms) {
+		final List<OpenTsdbHistogram> list = new ArrayList<>(histograms);
+		final int step = batchSizeLimit > 0 ? batchSizeLimit : Math.max(list.size(), 1);
+		for (int i = 0; i < list.size(); i += step) {
+			try {
+				final List<OpenTsdbHistogram> batch = list.subList(i, Math.min(i + step, list.size()));
+				final byte[] body = OpenTsdbHistogram.serializeJson(batch);
+				if (admit(batch.size(), body)) {
+					transport.post("/api/histogram", body);
+				}
+			} catch (Exception e) {
+				logger.error("Send histograms to OpenTSDB endpoint failed, Exception: {}.",
+						LogbackUtil.expection2Str(e));
+			}
+		}
+	}
+
+	/**
+	 * 查询时间序列数据，响应以流式方式解析；设置了查询缓存时，历史数据优先从缓存读取
+	 *
+	 * @param query 查询请求
+	 * @return 每条时间序列一个结果
+	 */
+	public List<QueryResult> query(OpenTsdbQuery query) throws IOException {
+		if (queryCache != null) {
+			return queryCache.query(query, this::fetch);
+		}
+		return fetch(query);
+	}
+
+	private List<QueryResult> fetch(OpenTsdbQuery query) throws IOException {
+		try (InputStream in = transport.stream("/api/query", query.serializeJson())) {
+			return QueryResponseParser.parseQuery(in);
+		}
+	}
+
+	/**
+	 * 查询时间序列的最新数据点
+	 *
+	 * @param query 查询请求
+	 * @return 每条时间序列的最新数据点
+	 */
+	public List<OpenTsdbMetric> queryLast(LastQuery query) throws IOException {
+		try (InputStream in = transport.stream("/api/query/last", query.serializeJson())) {
+			return QueryResponseParser.parseLast(in);
+		}
+	}
+
+	/**
+	 * 关闭客户端，释放传输层连接
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (dispatcher != null) {
+				dispatcher.close(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			}
+			if (sendExecutor != null) {
+				sendExecutor.shutdown();
+			}
+		}
+		for (SinkQueue queue : sinks) {
+			queue.close(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		}
+		transport.close();
+	}
+
 }
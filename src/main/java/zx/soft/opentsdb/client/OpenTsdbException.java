@@ -0,0 +1,27 @@
+package zx.soft.opentsdb.client;
+
+import java.io.IOException;
+
+/**
+ * TSD返回错误响应时抛出的异常
+ *
+ * @author wanggang
+ *
+ */
+public class OpenTsdbException extends IOException {
+
+	private static final long serialVersionUID = 2712435416306384311L;
+
+	// HTTP响应码
+	private final int statusCode;
+
+	public OpenTsdbException(int statusCode, String message) {
+		super("OpenTSDB responded with HTTP " + statusCode + (message == null ? "" : ": " + message));
+		this.statusCode = statusCode;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+}
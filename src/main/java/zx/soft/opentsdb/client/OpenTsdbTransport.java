@@ -0,0 +1,38 @@
+package zx.soft.opentsdb.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * OpenTSDB的HTTP传输层接口，负责将序列化好的请求体发送到TSD
+ *
+ * @author wanggang
+ *
+ */
+public interface OpenTsdbTransport extends Closeable {
+
+	/**
+	 * POST请求，响应码不是2xx时抛出{@link OpenTsdbException}
+	 *
+	 * @param path 接口路径，如/api/put
+	 * @param body JSON请求体
+	 */
+	void post(String path, byte[] body) throws IOException;
+
+	/**
+	 * POST请求并返回响应体输入流，由调用方负责关闭；响应码不是2xx时抛出{@link OpenTsdbException}
+	 *
+	 * @param path 接口路径，如/api/query
+	 * @param body JSON请求体
+	 * @return 响应体
+	 */
+	InputStream stream(String path, byte[] body) throws IOException;
+
+	/**
+	 * 关闭传输层，释放连接
+	 */
+	@Override
+	void close();
+
+}
@@ -0,0 +1,256 @@
+package zx.soft.opentsdb.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 发送限速，按每秒数据点数和每秒字节数限制，可以同时设置全局和每个TSD节点（endpoint）的限制
+ * <p/>
+ * 网络分区恢复后所有主机会全速重放积压的数据，容易压垮TSD集群。限速后积压的数据平滑地追赶：
+ * 令牌不足时，{@link Policy#WAIT}策略等待（最长等待时间可设置，超过后丢弃），
+ * {@link Policy#SHED}策略直接丢弃该批数据。
+ * 同一个实例可以被多个客户端和Reporter共享，全局限制即对所有共享者生效；每个节点的限制按endpoint分别计算。
+ * 令牌桶基于CAS实现，没有锁。
+ *
+ * @author wanggang
+ *
+ */
+public class RateLimiter {
+
+	private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+
+	// 丢弃日志的间隔（次数）
+	private static final long LOG_EVERY_SHEDS = 1000;
+
+	// 默认允许1秒的突发量
+	public static final long DEFAULT_BURST_MS = 1000L;
+
+	// WAIT策略默认的最长等待时间
+	public static final long DEFAULT_MAX_WAIT_MS = 30_000L;
+
+	/**
+	 * 令牌不足时的处理策略
+	 */
+	public enum Policy {
+		// 等待令牌，发送线程阻塞，请求在调用方排队
+		WAIT,
+		// 丢弃数据
+		SHED
+	}
+
+	private static final TokenBucket[] NO_BUCKETS = new TokenBucket[2];
+
+	private final Policy policy;
+
+	private final double burstSeconds;
+
+	private final long maxWaitNanos;
+
+	private final double endpointPointsPerSecond;
+
+	private final double endpointBytesPerSecond;
+
+	private final LongSupplier clock;
+
+	// 全局令牌桶，为null时不限制
+	private final TokenBucket globalPoints;
+
+	private final TokenBucket globalBytes;
+
+	// 每个节点的令牌桶，依次为数据点数和字节数
+	private final ConcurrentHashMap<String, TokenBucket[]> endpoints = new ConcurrentHashMap<>();
+
+	private final AtomicLong shedPoints = new AtomicLong();
+
+	private final AtomicLong sheds = new AtomicLong();
+
+	private RateLimiter(Builder builder) {
+		this.policy = builder.policy;
+		this.burstSeconds = builder.burstMillis / 1000.0;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(builder.maxWaitMillis);
+		this.endpointPointsPerSecond = builder.endpointPointsPerSecond;
+		this.endpointBytesPerSecond = builder.endpointBytesPerSecond;
+		this.clock = builder.clock;
+		this.globalPoints = bucket(builder.pointsPerSecond);
+		this.globalBytes = bucket(builder.bytesPerSecond);
+	}
+
+	public static Builder withPolicy(Policy policy) {
+		return new Builder(policy);
+	}
+
+	public static class Builder {
+
+		private final Policy policy;
+		private double pointsPerSecond;
+		private double bytesPerSecond;
+		private double endpointPointsPerSecond;
+		private double endpointBytesPerSecond;
+		private long burstMillis = DEFAULT_BURST_MS;
+		private long maxWaitMillis = DEFAULT_MAX_WAIT_MS;
+		private LongSupplier clock = System::nanoTime;
+
+		private Builder(Policy policy) {
+			this.policy = policy;
+		}
+
+		/**
+		 * 全局每秒数据点数，0表示不限制
+		 */
+		public Builder withPointsPerSecond(double pointsPerSecond) {
+			this.pointsPerSecond = pointsPerSecond;
+			return this;
+		}
+
+		/**
+		 * 全局每秒字节数（请求体），0表示不限制
+		 */
+		public Builder withBytesPerSecond(double bytesPerSecond) {
+			this.bytesPerSecond = bytesPerSecond;
+			return this;
+		}
+
+		/**
+		 * 每个节点每秒数据点数，0表示不限制
+		 */
+		public Builder withEndpointPointsPerSecond(double endpointPointsPerSecond) {
+			this.endpointPointsPerSecond = endpointPointsPerSecond;
+			return this;
+		}
+
+		/**
+		 * 每个节点每秒字节数，0表示不限制
+		 */
+		public Builder withEndpointBytesPerSecond(double endpointBytesPerSecond) {
+			this.endpointBytesPerSecond = endpointBytesPerSecond;
+			return this;
+		}
+
+		/**
+		 * 允许的突发量，以速率的时长表示，默认1秒
+		 */
+		public Builder withBurst(long burst, TimeUnit unit) {
+			this.burstMillis = unit.toMillis(burst);
+			return this;
+		}
+
+		/**
+		 * WAIT策略的最长等待时间，超过后丢弃
+		 */
+		public Builder withMaxWait(long maxWait, TimeUnit unit) {
+			this.maxWaitMillis = unit.toMillis(maxWait);
+			return this;
+		}
+
+		/**
+		 * 纳秒时钟，用于测试
+		 */
+		Builder withClock(LongSupplier clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		public RateLimiter build() {
+			return new RateLimiter(this);
+		}
+
+	}
+
+	/**
+	 * 发送前取令牌，WAIT策略下令牌不足时阻塞等待
+	 *
+	 * @param endpoint TSD节点标识
+	 * @param points 数据点数
+	 * @param bytes 请求体字节数
+	 * @return 是否可以发送，false表示该批数据应被丢弃
+	 */
+	public boolean acquire(String endpoint, int points, long bytes) {
+		final TokenBucket[] buckets = { globalPoints, globalBytes, null, null };
+		final TokenBucket[] endpointBuckets = endpointBuckets(endpoint);
+		buckets[2] = endpointBuckets[0];
+		buckets[3] = endpointBuckets[1];
+		final long[] tokens = { points, bytes, points, bytes };
+
+		final boolean acquired = policy == Policy.WAIT ? reserveAndWait(buckets, tokens) : tryAcquire(buckets,
+				tokens);
+		if (!acquired) {
+			shedPoints.addAndGet(points);
+			if (sheds.incrementAndGet() % LOG_EVERY_SHEDS == 1) {
+				logger.warn("Rate limit exceeded for {}, {} points shed so far.", endpoint, shedPoints.get());
+			}
+		}
+		return acquired;
+	}
+
+	/**
+	 * 被丢弃的数据点数
+	 */
+	public long getShedPoints() {
+		return shedPoints.get();
+	}
+
+	private boolean tryAcquire(TokenBucket[] buckets, long[] tokens) {
+		for (int i = 0; i < buckets.length; i++) {
+			if (buckets[i] != null && !buckets[i].tryAcquire(tokens[i])) {
+				for (int j = 0; j < i; j++) {
+					if (buckets[j] != null) {
+						buckets[j].refund(tokens[j]);
+					}
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean reserveAndWait(TokenBucket[] buckets, long[] tokens) {
+		long wait = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			if (buckets[i] == null) {
+				continue;
+			}
+			final long reserved = buckets[i].reserve(tokens[i], maxWaitNanos);
+			if (reserved < 0) {
+				for (int j = 0; j < i; j++) {
+					if (buckets[j] != null) {
+						buckets[j].refund(tokens[j]);
+					}
+				}
+				return false;
+			}
+			wait = Math.max(wait, reserved);
+		}
+		final long deadline = clock.getAsLong() + wait;
+		for (long remaining = wait; remaining > 0; remaining = deadline - clock.getAsLong()) {
+			LockSupport.parkNanos(remaining);
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private TokenBucket[] endpointBuckets(String endpoint) {
+		if (endpointPointsPerSecond <= 0 && endpointBytesPerSecond <= 0) {
+			return NO_BUCKETS;
+		}
+		TokenBucket[] buckets = endpoints.get(endpoint);
+		if (buckets == null) {
+			buckets = endpoints.computeIfAbsent(endpoint, k -> new TokenBucket[] { bucket(endpointPointsPerSecond),
+					bucket(endpointBytesPerSecond) });
+		}
+		return buckets;
+	}
+
+	private TokenBucket bucket(double rate) {
+		return rate > 0 ? new TokenBucket(rate, Math.max(rate * burstSeconds, 1), clock) : null;
+	}
+
+}
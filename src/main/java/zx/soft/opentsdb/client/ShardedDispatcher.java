@@ -0,0 +1,407 @@
+package zx.soft.opentsdb.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+import zx.soft.utils.log.LogbackUtil;
+
+/**
+ * 按时间序列分片、按优先级分通道的发送队列
+ * <p/>
+ * 数据点按{@link OpenTsdbMetric#seriesHash()}分配到N个分片，每个分片一个发送线程。
+ * 同一时间序列总是进入同一个分片、由同一个线程发送；按Metric名匹配通道时也总是进入同一个通道，
+ * 因此并行发送时仍保持时间戳顺序。调用方指定通道时，需要自己保证同一时间序列使用同一个通道，
+ * 不同通道之间按权重调度，不保证顺序。
+ * 每个分片中每个{@link Lane}一个有界队列，发送线程按通道权重平滑加权轮询，每次从一个通道取一批发送；
+ * 队列满时按通道的策略阻塞调用方或者丢弃数据点。
+ *
+ * @author wanggang
+ *
+ */
+class ShardedDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(ShardedDispatcher.class);
+
+	// 发送线程等待数据的时间，同时用于检查关闭标志
+	private static final long POLL_TIMEOUT_MS = 100;
+
+	// 缓存的Metric名数超过该值时清空
+	private static final int MAX_CACHED_LANES = 100_000;
+
+	// 丢弃日志的间隔（次数）
+	private static final long LOG_EVERY_DROPS = 1000;
+
+	private final List<Lane> lanes;
+
+	private final int defaultLane;
+
+	private final List<Shard> shards;
+
+	private final List<Thread> workers;
+
+	// 批量发送
+	private final Consumer<List<OpenTsdbMetric>> sender;
+
+	// 每批最大数据点数
+	private final IntSupplier batchSize;
+
+	// Metric名对应的通道下标
+	private final Map<String, Integer> laneCache = new ConcurrentHashMap<>();
+
+	// 每个通道丢弃的数据点数
+	private final AtomicLong[] dropped;
+
+	// 已入队未发送完成的数据点数
+	private final AtomicLong pending = new AtomicLong();
+
+	private volatile boolean running = true;
+
+	ShardedDispatcher(int shards, int queueCapacity, IntSupplier batchSize, Consumer<List<OpenTsdbMetric>> sender) {
+		this(shards, withDefaultLane(new ArrayList<Lane>(), queueCapacity), batchSize, sender);
+	}
+
+	/**
+	 * @param lanes 通道，必须包含名为{@link Lane#DEFAULT}的通道
+	 */
+	ShardedDispatcher(int shards, List<Lane> lanes, IntSupplier batchSize, Consumer<List<OpenTsdbMetric>> sender) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("Shards must be positive: " + shards);
+		}
+		this.lanes = new ArrayList<>(lanes);
+		this.defaultLane = indexOf(Lane.DEFAULT);
+		if (defaultLane < 0) {
+			throw new IllegalArgumentException("Missing lane: " + Lane.DEFAULT);
+		}
+		this.batchSize = batchSize;
+		this.sender = sender;
+		this.dropped = new AtomicLong[lanes.size()];
+		for (int i = 0; i < dropped.length; i++) {
+			dropped[i] = new AtomicLong();
+		}
+		this.shards = new ArrayList<>(shards);
+		this.workers = new ArrayList<>(shards);
+		for (int i = 0; i < shards; i++) {
+			final Shard shard = new Shard();
+			this.shards.add(shard);
+			final Thread worker = new Thread(() -> drain(shard), "opentsdb-shard-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * 没有名为{@link Lane#DEFAULT}的通道时，加入一个给定容量、阻塞策略的默认通道
+	 */
+	static List<Lane> withDefaultLane(List<Lane> lanes, int queueCapacity) {
+		for (Lane lane : lanes) {
+			if (Lane.DEFAULT.equals(lane.getName())) {
+				return lanes;
+			}
+		}
+		final List<Lane> result = new ArrayList<>(lanes);
+		result.add(Lane.named(Lane.DEFAULT).withQueueCapacity(queueCapacity).build());
+		return result;
+	}
+
+	/**
+	 * 数据点所在的分片
+	 */
+	static int shardOf(OpenTsdbMetric metric, int shards) {
+		return (int) Math.floorMod(metric.seriesHash(), (long) shards);
+	}
+
+	/**
+	 * 数据点按Metric名匹配通道后入队
+	 */
+	void dispatch(Collection<OpenTsdbMetric> metrics) {
+		dispatch(metrics, null);
+	}
+
+	/**
+	 * 数据点入队，阻塞策略的通道队列满时等待；关闭后（包括客户端替换分片配置时）数据点被丢弃，计入通道的丢弃数，
+	 * 不向调用方抛出异常
+	 *
+	 * @param lane 通道名，为null时按Metric名匹配
+	 */
+	void dispatch(Collection<OpenTsdbMetric> metrics, String lane) {
+		int fixedLane = -1;
+		if (lane != null) {
+			fixedLane = indexOf(lane);
+			if (fixedLane < 0) {
+				throw new IllegalArgumentException("Unknown lane: " + lane);
+			}
+		}
+		final int shardCount = shards.size();
+		try {
+			for (OpenTsdbMetric metric : metrics) {
+				final int laneIndex = fixedLane >= 0 ? fixedLane : laneOf(metric.getMetric());
+				shards.get(shardOf(metric, shardCount)).offer(laneIndex, metric);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 等待已入队的数据点发送完成
+	 *
+	 * @return 超时前是否全部发送完成
+	 */
+	boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (pending.get() > 0) {
+			if (System.nanoTime() >= deadline) {
+				return false;
+			}
+			Thread.sleep(5);
+		}
+		return true;
+	}
+
+	/**
+	 * 通道丢弃的数据点数
+	 */
+	long getDropped(String lane) {
+		final int index = indexOf(lane);
+		return index < 0 ? 0 : dropped[index].get();
+	}
+
+	/**
+	 * 停止接收数据，等待队列中的数据发送完成；超时后丢弃队列中剩余的数据点并停止发送线程，
+	 * 返回后不再调用发送方法（正在发送的一批除外）
+	 */
+	void close(long timeout, TimeUnit unit) {
+		running = false;
+		for (Shard shard : shards) {
+			// 唤醒阻塞在满队列上的调用方，由其丢弃数据点
+			shard.wakeUp();
+		}
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			for (Thread worker : workers) {
+				final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining > 0) {
+					worker.join(remaining);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long discarded = 0;
+		for (Shard shard : shards) {
+			discarded += shard.discard();
+		}
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		if (discarded > 0) {
+			logger.warn("OpenTSDB dispatcher closed with {} points unsent.", discarded);
+		}
+	}
+
+	private int indexOf(String lane) {
+		for (int i = 0; i < lanes.size(); i++) {
+			if (lanes.get(i).getName().equals(lane)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int laneOf(String metric) {
+		if (lanes.size() == 1 || metric == null) {
+			return defaultLane;
+		}
+		Integer index = laneCache.get(metric);
+		if (index == null) {
+			index = defaultLane;
+			for (int i = 0; i < lanes.size(); i++) {
+				if (lanes.get(i).matches(metric)) {
+					index = i;
+					break;
+				}
+			}
+			if (laneCache.size() >= MAX_CACHED_LANES) {
+				laneCache.clear();
+			}
+			laneCache.put(metric, index);
+		}
+		return index;
+	}
+
+	private void drop(int lane) {
+		final long total = dropped[lane].incrementAndGet();
+		if (total % LOG_EVERY_DROPS == 1) {
+			logger.warn("OpenTSDB lane {} is full or closed, {} points dropped so far.", lanes.get(lane).getName(),
+					total);
+		}
+	}
+
+	private void drain(Shard shard) {
+		final List<OpenTsdbMetric> batch = new ArrayList<>();
+		while (running || !Thread.currentThread().isInterrupted()) {
+			try {
+				if (!shard.take(batch, Math.max(batchSize.getAsInt(), 1))) {
+					return;
+				}
+				sender.accept(batch);
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				logger.error("Send to OpenTSDB endpoint failed, Exception: {}.", LogbackUtil.expection2Str(e));
+			} finally {
+				pending.addAndGet(-batch.size());
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * 一个分片，每个通道一个队列，由一把锁保护
+	 */
+	private class Shard {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notEmpty = lock.newCondition();
+		private final Condition notFull = lock.newCondition();
+		private final List<ArrayDeque<OpenTsdbMetric>> queues = new ArrayList<>();
+		// 平滑加权轮询的当前权重
+		private final int[] current = new int[lanes.size()];
+		// 所有通道的数据点数
+		private int size;
+
+		private Shard() {
+			for (int i = 0; i < lanes.size(); i++) {
+				queues.add(new ArrayDeque<OpenTsdbMetric>());
+			}
+		}
+
+		private void offer(int laneIndex, OpenTsdbMetric metric) throws InterruptedException {
+			final Lane lane = lanes.get(laneIndex);
+			final ArrayDeque<OpenTsdbMetric> queue = queues.get(laneIndex);
+			lock.lock();
+			try {
+				while (running && queue.size() >= lane.getQueueCapacity()) {
+					if (lane.getDropPolicy() == Lane.DropPolicy.DROP_NEWEST) {
+						drop(laneIndex);
+						return;
+					}
+					if (lane.getDropPolicy() == Lane.DropPolicy.DROP_OLDEST) {
+						queue.pollFirst();
+						size--;
+						pending.decrementAndGet();
+						drop(laneIndex);
+					} else {
+						notFull.await();
+					}
+				}
+				if (!running) {
+					// 关闭后不再入队，包括关闭前已在等待空位的调用方
+					drop(laneIndex);
+					return;
+				}
+				queue.addLast(metric);
+				size++;
+				pending.incrementAndGet();
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * 按权重选择一个通道，取出一批数据点
+		 *
+		 * @return 已关闭且没有数据时返回false
+		 */
+		private boolean take(List<OpenTsdbMetric> batch, int max) throws InterruptedException {
+			lock.lock();
+			try {
+				while (size == 0) {
+					if (!running) {
+						return false;
+					}
+					notEmpty.await(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+				}
+				final ArrayDeque<OpenTsdbMetric> queue = queues.get(nextLane());
+				for (int i = 0; i < max && !queue.isEmpty(); i++) {
+					batch.add(queue.pollFirst());
+				}
+				size -= batch.size();
+				notFull.signalAll();
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void wakeUp() {
+			lock.lock();
+			try {
+				notFull.signalAll();
+				notEmpty.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * 清空所有通道的队列
+		 *
+		 * @return 丢弃的数据点数
+		 */
+		private int discard() {
+			lock.lock();
+			try {
+				final int discarded = size;
+				for (ArrayDeque<OpenTsdbMetric> queue : queues) {
+					queue.clear();
+				}
+				size = 0;
+				pending.addAndGet(-discarded);
+				notFull.signalAll();
+				notEmpty.signalAll();
+				return discarded;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * 平滑加权轮询，只在有数据的通道中选择
+		 */
+		private int nextLane() {
+			int total = 0;
+			int best = -1;
+			for (int i = 0; i < current.length; i++) {
+				if (queues.get(i).isEmpty()) {
+					continue;
+				}
+				current[i] += lanes.get(i).getWeight();
+				total += lanes.get(i).getWeight();
+				if (best < 0 || current[i] > current[best]) {
+					best = i;
+				}
+			}
+			current[best] -= total;
+			return best;
+		}
+
+	}
+
+}
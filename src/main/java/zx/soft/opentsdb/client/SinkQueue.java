@@ -0,0 +1,106 @@
+package zx.soft.opentsdb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import zx.soft.utils.log.LogbackUtil;
+
+/**
+ * 一个输出目标的有界队列和写入线程，队列满时丢弃新的批次，不阻塞发送方
+ *
+ * @author wanggang
+ *
+ */
+class SinkQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(SinkQueue.class);
+
+	// 工作线程等待新批次的超时时间，用于检查是否已关闭
+	private static final long POLL_TIMEOUT_MS = 100;
+
+	// 丢弃的日志间隔（批次数）
+	private static final long LOG_EVERY_DROPS = 100;
+
+	private final MetricSink sink;
+
+	private final String name;
+
+	private final BlockingQueue<EncodedBatch> queue;
+
+	private final Thread worker;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile boolean running = true;
+
+	SinkQueue(MetricSink sink, int capacity, String name) {
+		this.sink = sink;
+		this.name = name;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.worker = new Thread(this::drain, name);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	MetricSink getSink() {
+		return sink;
+	}
+
+	void offer(EncodedBatch batch) {
+		if (!running || !queue.offer(batch)) {
+			if (dropped.incrementAndGet() % LOG_EVERY_DROPS == 1) {
+				logger.warn("{} is full, {} batches dropped so far.", name, dropped.get());
+			}
+		}
+	}
+
+	long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * 停止接收数据，等待队列中的批次写完后关闭输出目标；超时后丢弃剩余批次。
+	 * 不中断写入线程，中断会使正在写入的文件通道被关闭，只留下半行数据
+	 */
+	void close(long timeout, TimeUnit unit) {
+		running = false;
+		try {
+			worker.join(unit.toMillis(timeout));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final List<EncodedBatch> unwritten = new ArrayList<>();
+		queue.drainTo(unwritten);
+		if (!unwritten.isEmpty()) {
+			logger.warn("{} closed with {} batches unwritten.", name, unwritten.size());
+		}
+		sink.close();
+	}
+
+	private void drain() {
+		while (running || !queue.isEmpty()) {
+			final EncodedBatch batch;
+			try {
+				batch = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (batch == null) {
+				continue;
+			}
+			try {
+				sink.write(batch);
+			} catch (Exception e) {
+				logger.error("Write to {} failed, Exception: {}.", name, LogbackUtil.expection2Str(e));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package zx.soft.opentsdb.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * 输出到TSD的telnet接口，连接保持打开，写入失败后下一批重新连接
+ * <p/>
+ * telnet接口只在出错时返回消息，因此写入成功不代表数据点被接受。
+ *
+ * @author wanggang
+ *
+ */
+public class TelnetSink implements MetricSink {
+
+	private final String host;
+
+	private final int port;
+
+	private Socket socket;
+
+	private OutputStream out;
+
+	private TelnetSink(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	public static TelnetSink forAddress(String host, int port) {
+		return new TelnetSink(host, port);
+	}
+
+	@Override
+	public synchronized void write(EncodedBatch batch) throws IOException {
+		if (socket == null) {
+			final Socket connected = new Socket();
+			connected.connect(new InetSocketAddress(host, port), OpenTsdbClient.CONN_TIMEOUT_DEFAULT_MS);
+			socket = connected;
+			out = connected.getOutputStream();
+		}
+		try {
+			out.write(batch.lines());
+			out.flush();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// 关闭失败时忽略
+			}
+			socket = null;
+			out = null;
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package zx.soft.opentsdb.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 无锁令牌桶
+ * <p/>
+ * 只保存一个状态：令牌数为0的时刻（纳秒）。当前令牌数为(now - zeroTime) * rate，不超过容量，
+ * 取令牌即把该时刻向后推，通过CAS更新，不需要加锁和定时补充令牌的线程。
+ * 令牌不足时{@link #reserve}允许透支，返回需要等待的时间，调用方等待后再发送，相当于排队。
+ *
+ * @author wanggang
+ *
+ */
+class TokenBucket {
+
+	private final double nanosPerToken;
+
+	private final long capacityNanos;
+
+	private final LongSupplier clock;
+
+	private final AtomicLong zeroTime;
+
+	/**
+	 * @param rate 每秒令牌数
+	 * @param capacity 桶容量，即允许的突发量
+	 */
+	TokenBucket(double rate, double capacity, LongSupplier clock) {
+		if (rate <= 0 || capacity <= 0) {
+			throw new IllegalArgumentException("Rate and capacity must be positive");
+		}
+		this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / rate;
+		this.capacityNanos = (long) (capacity * nanosPerToken);
+		this.clock = clock;
+		// 初始为满桶
+		this.zeroTime = new AtomicLong(clock.getAsLong() - capacityNanos);
+	}
+
+	/**
+	 * 令牌足够时取出并返回true，否则不取并返回false；桶满时允许一次取出超过容量的令牌
+	 */
+	boolean tryAcquire(long tokens) {
+		final long cost = cost(tokens);
+		while (true) {
+			final long now = clock.getAsLong();
+			final long current = zeroTime.get();
+			final long start = Math.max(current, now - capacityNanos);
+			final long next = start + cost;
+			if (next > now && start > now - capacityNanos) {
+				return false;
+			}
+			if (zeroTime.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 预定令牌，需要等待的时间超过maxWaitNanos时不预定
+	 *
+	 * @return 需要等待的纳秒数，0表示可以立即发送，-1表示等待时间超过上限
+	 */
+	long reserve(long tokens, long maxWaitNanos) {
+		final long cost = cost(tokens);
+		while (true) {
+			final long now = clock.getAsLong();
+			final long current = zeroTime.get();
+			final long next = Math.max(current, now - capacityNanos) + cost;
+			final long wait = Math.max(next - now, 0);
+			if (wait > maxWaitNanos) {
+				return -1;
+			}
+			if (zeroTime.compareAndSet(current, next)) {
+				return wait;
+			}
+		}
+	}
+
+	/**
+	 * 归还令牌，用于同时从多个桶取令牌而其中一个失败的情况
+	 */
+	void refund(long tokens) {
+		zeroTime.addAndGet(-cost(tokens));
+	}
+
+	/**
+	 * 当前可用令牌数
+	 */
+	double available() {
+		final long elapsed = clock.getAsLong() - zeroTime.get();
+		return Math.min(elapsed, capacityNanos) / nanosPerToken;
+	}
+
+	private long cost(long tokens) {
+		return (long) (tokens * nanosPerToken);
+	}
+
+}
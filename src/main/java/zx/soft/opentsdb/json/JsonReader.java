@@ -0,0 +1,456 @@
+package zx.soft.opentsdb.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 轻量的流式JSON解析类，逐个token读取，不构建树模型
+ * <p/>
+ * 用于解析查询结果：数据点直接解析为long/double，不产生中间对象。
+ * 兼容OpenTSDB在填充策略为NaN时输出的非标准NaN字面量。
+ *
+ * @author wanggang
+ *
+ */
+public class JsonReader implements Closeable {
+
+	/**
+	 * JSON token类型
+	 */
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	// 作用域类型
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private final Reader in;
+
+	private final char[] buffer = new char[8192];
+
+	private int pos = 0;
+
+	private int limit = 0;
+
+	private int[] stack = new int[32];
+
+	private int depth = 1;
+
+	// 已经peek但还未消费的token
+	private Token peeked;
+
+	// 复用的字符串和数字缓冲区
+	private final StringBuilder text = new StringBuilder();
+
+	public JsonReader(Reader in) {
+		this.in = in;
+		this.stack[0] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * 返回下一个token的类型，不消费该token
+	 */
+	public Token peek() throws IOException {
+		if (peeked != null) {
+			return peeked;
+		}
+		final int scope = stack[depth - 1];
+		int c;
+		switch (scope) {
+		case EMPTY_ARRAY:
+			stack[depth - 1] = NONEMPTY_ARRAY;
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return peeked = Token.END_ARRAY;
+			}
+			if (c != -1) {
+				pos--;
+			}
+			return peeked = peekValue();
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return peeked = Token.END_ARRAY;
+			}
+			if (c != ',') {
+				throw syntaxError("Expected ',' or ']'");
+			}
+			return peeked = peekValue();
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			stack[depth - 1] = DANGLING_NAME;
+			c = nextNonWhitespace();
+			if (c == '}') {
+				return peeked = Token.END_OBJECT;
+			}
+			if (scope == NONEMPTY_OBJECT) {
+				if (c != ',') {
+					throw syntaxError("Expected ',' or '}'");
+				}
+				c = nextNonWhitespace();
+			}
+			if (c != '"') {
+				throw syntaxError("Expected name");
+			}
+			return peeked = Token.NAME;
+		case DANGLING_NAME:
+			stack[depth - 1] = NONEMPTY_OBJECT;
+			if (nextNonWhitespace() != ':') {
+				throw syntaxError("Expected ':'");
+			}
+			return peeked = peekValue();
+		case EMPTY_DOCUMENT:
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+			return peeked = peekValue();
+		default:
+			if (nextNonWhitespace() != -1) {
+				throw syntaxError("Expected end of document");
+			}
+			return peeked = Token.END_DOCUMENT;
+		}
+	}
+
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		depth--;
+	}
+
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		depth--;
+	}
+
+	/**
+	 * 当前对象或数组中是否还有元素
+	 */
+	public boolean hasNext() throws IOException {
+		final Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	public String nextName() throws IOException {
+		expect(Token.NAME);
+		return readQuoted();
+	}
+
+	/**
+	 * 将字段名直接解析为long，用于dps中以时间戳为key的对象，避免创建字符串
+	 */
+	public long nextNameAsLong() throws IOException {
+		expect(Token.NAME);
+		long result = 0;
+		boolean negative = false;
+		int c = read();
+		if (c == '-') {
+			negative = true;
+			c = read();
+		}
+		if (c == '"') {
+			throw syntaxError("Expected numeric name");
+		}
+		while (c != '"') {
+			if (c < '0' || c > '9') {
+				throw syntaxError("Expected numeric name");
+			}
+			result = result * 10 + (c - '0');
+			c = read();
+		}
+		return negative ? -result : result;
+	}
+
+	public String nextString() throws IOException {
+		final Token token = peek();
+		if (token == Token.STRING) {
+			peeked = null;
+			return readQuoted();
+		}
+		if (token == Token.NUMBER || token == Token.BOOLEAN) {
+			peeked = null;
+			readLiteral();
+			return text.toString();
+		}
+		if (token == Token.NULL) {
+			nextNull();
+			return null;
+		}
+		throw syntaxError("Expected string but was " + token);
+	}
+
+	/**
+	 * 读取数字，兼容以字符串表示的数字（如/api/query/last的value）、null和NaN
+	 */
+	public double nextDouble() throws IOException {
+		final Token token = peek();
+		if (token == Token.NULL) {
+			nextNull();
+			return Double.NaN;
+		}
+		if (token == Token.STRING) {
+			peeked = null;
+			return Double.parseDouble(readQuoted());
+		}
+		if (token != Token.NUMBER) {
+			throw syntaxError("Expected number but was " + token);
+		}
+		peeked = null;
+		if (readLiteral()) {
+			return parseLong();
+		}
+		return Double.parseDouble(text.toString());
+	}
+
+	public long nextLong() throws IOException {
+		final Token token = peek();
+		if (token == Token.STRING) {
+			peeked = null;
+			return Long.parseLong(readQuoted());
+		}
+		if (token != Token.NUMBER) {
+			throw syntaxError("Expected number but was " + token);
+		}
+		peeked = null;
+		if (readLiteral()) {
+			return parseLong();
+		}
+		return (long) Double.parseDouble(text.toString());
+	}
+
+	public boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		readLiteral();
+		if ("true".contentEquals(text)) {
+			return true;
+		}
+		if ("false".contentEquals(text)) {
+			return false;
+		}
+		throw syntaxError("Expected boolean");
+	}
+
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+		readLiteral();
+		if (!"null".contentEquals(text)) {
+			throw syntaxError("Expected null");
+		}
+	}
+
+	/**
+	 * 跳过下一个值，包括嵌套的对象和数组
+	 */
+	public void skipValue() throws IOException {
+		switch (peek()) {
+		case BEGIN_OBJECT:
+			beginObject();
+			while (hasNext()) {
+				nextName();
+				skipValue();
+			}
+			endObject();
+			break;
+		case BEGIN_ARRAY:
+			beginArray();
+			while (hasNext()) {
+				skipValue();
+			}
+			endArray();
+			break;
+		case NAME:
+			nextName();
+			skipValue();
+			break;
+		case STRING:
+			peeked = null;
+			readQuoted();
+			break;
+		case NUMBER:
+		case BOOLEAN:
+		case NULL:
+			peeked = null;
+			readLiteral();
+			break;
+		default:
+			throw syntaxError("Unexpected " + peeked);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private Token peekValue() throws IOException {
+		final int c = nextNonWhitespace();
+		switch (c) {
+		case '{':
+			return Token.BEGIN_OBJECT;
+		case '[':
+			return Token.BEGIN_ARRAY;
+		case '"':
+			return Token.STRING;
+		case 't':
+		case 'f':
+			pos--;
+			return Token.BOOLEAN;
+		case 'n':
+			pos--;
+			return Token.NULL;
+		case -1:
+			throw syntaxError("Unexpected end of document");
+		default:
+			if (c == '-' || c == 'N' || c == 'I' || (c >= '0' && c <= '9')) {
+				pos--;
+				return Token.NUMBER;
+			}
+			throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private void expect(Token expected) throws IOException {
+		final Token token = peek();
+		if (token != expected) {
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (depth == stack.length) {
+			final int[] newStack = new int[depth * 2];
+			System.arraycopy(stack, 0, newStack, 0, depth);
+			stack = newStack;
+		}
+		stack[depth++] = scope;
+	}
+
+	/**
+	 * 读取字面量（数字、true/false/null）到text中
+	 *
+	 * @return 是否为不带小数和指数的整数
+	 */
+	private boolean readLiteral() throws IOException {
+		text.setLength(0);
+		boolean integral = true;
+		while (true) {
+			if (pos == limit && !fill()) {
+				break;
+			}
+			final char c = buffer[pos];
+			if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				break;
+			}
+			if (!(c == '-' || (c >= '0' && c <= '9'))) {
+				integral = false;
+			}
+			text.append(c);
+			pos++;
+		}
+		if (text.length() == 0) {
+			throw syntaxError("Expected literal");
+		}
+		return integral && !(text.length() == 1 && text.charAt(0) == '-');
+	}
+
+	private long parseLong() {
+		final boolean negative = text.charAt(0) == '-';
+		long result = 0;
+		for (int i = negative ? 1 : 0; i < text.length(); i++) {
+			result = result * 10 + (text.charAt(i) - '0');
+		}
+		return negative ? -result : result;
+	}
+
+	/**
+	 * 读取引号内的字符串，起始引号已经被消费
+	 */
+	private String readQuoted() throws IOException {
+		text.setLength(0);
+		while (true) {
+			int c = read();
+			if (c == '"') {
+				return text.toString();
+			}
+			if (c == '\\') {
+				c = read();
+				switch (c) {
+				case 'n':
+					text.append('\n');
+					break;
+				case 't':
+					text.append('\t');
+					break;
+				case 'r':
+					text.append('\r');
+					break;
+				case 'b':
+					text.append('\b');
+					break;
+				case 'f':
+					text.append('\f');
+					break;
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						code = (code << 4) + Character.digit(read(), 16);
+					}
+					text.append((char) code);
+					break;
+				default:
+					text.append((char) c);
+				}
+			} else {
+				text.append((char) c);
+			}
+		}
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			throw syntaxError("Unexpected end of document");
+		}
+		return buffer[pos++];
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while (pos < limit || fill()) {
+			final char c = buffer[pos++];
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	private boolean fill() throws IOException {
+		final int n = in.read(buffer, 0, buffer.length);
+		if (n <= 0) {
+			pos = limit = 0;
+			return false;
+		}
+		pos = 0;
+		limit = n;
+		return true;
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " at depth " + depth);
+	}
+
+}
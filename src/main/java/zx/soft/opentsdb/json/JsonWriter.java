@@ -0,0 +1,187 @@
+package zx.soft.opentsdb.json;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 轻量的JSON输出类，用于序列化Metric数据和查询请求，不依赖Jackson
+ * <p/>
+ * 调用方负责保证beginXxx/endXxx成对出现，逗号由本类自动处理。
+ *
+ * @author wanggang
+ *
+ */
+public class JsonWriter {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final StringBuilder out;
+
+	// 当前层级是否需要在下一个元素前输出逗号
+	private boolean needComma = false;
+
+	public JsonWriter() {
+		this(256);
+	}
+
+	public JsonWriter(int capacity) {
+		this.out = new StringBuilder(capacity);
+	}
+
+	public JsonWriter beginObject() {
+		separator();
+		out.append('{');
+		needComma = false;
+		return this;
+	}
+
+	public JsonWriter endObject() {
+		out.append('}');
+		needComma = true;
+		return this;
+	}
+
+	public JsonWriter beginArray() {
+		separator();
+		out.append('[');
+		needComma = false;
+		return this;
+	}
+
+	public JsonWriter endArray() {
+		out.append(']');
+		needComma = true;
+		return this;
+	}
+
+	/**
+	 * 输出对象的字段名，紧接着需要输出字段值
+	 */
+	public JsonWriter name(String name) {
+		separator();
+		writeString(name);
+		out.append(':');
+		needComma = false;
+		return this;
+	}
+
+	public JsonWriter value(String value) {
+		separator();
+		if (value == null) {
+			out.append("null");
+		} else {
+			writeString(value);
+		}
+		needComma = true;
+		return this;
+	}
+
+	public JsonWriter value(long value) {
+		separator();
+		out.append(value);
+		needComma = true;
+		return this;
+	}
+
+	public JsonWriter value(double value) {
+		separator();
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			// 与Jackson默认行为一致，非数字的浮点数以字符串输出
+			writeString(Double.toString(value));
+		} else {
+			out.append(value);
+		}
+		needComma = true;
+		return this;
+	}
+
+	public JsonWriter value(boolean value) {
+		separator();
+		out.append(value);
+		needComma = true;
+		return this;
+	}
+
+	/**
+	 * 输出任意对象：整数和浮点数按数字输出，布尔值按布尔输出，其它按字符串输出
+	 */
+	public JsonWriter value(Object value) {
+		if (value == null) {
+			return value((String) null);
+		}
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+				|| value instanceof AtomicLong || value instanceof AtomicInteger) {
+			return value(((Number) value).longValue());
+		}
+		if (value instanceof Double || value instanceof Float) {
+			return value(((Number) value).doubleValue());
+		}
+		if (value instanceof BigDecimal || value instanceof BigInteger) {
+			separator();
+			out.append(value.toString());
+			needComma = true;
+			return this;
+		}
+		if (value instanceof Number) {
+			return value(((Number) value).doubleValue());
+		}
+		if (value instanceof Boolean) {
+			return value(((Boolean) value).booleanValue());
+		}
+		return value(value.toString());
+	}
+
+	public int length() {
+		return out.length();
+	}
+
+	public byte[] toBytes() {
+		return out.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return out.toString();
+	}
+
+	private void separator() {
+		if (needComma) {
+			out.append(',');
+		}
+	}
+
+	private void writeString(String value) {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+
+}
@@ -0,0 +1,76 @@
+package zx.soft.opentsdb.metric;
+
+/**
+ * Metric名的通配符模式，*匹配任意个字符（包括0个），其余字符按字面匹配
+ * <p/>
+ * 模式按*拆分为字面片段，匹配时逐段查找，不使用正则表达式。
+ * {@link zx.soft.opentsdb.reporter.MetricRules}和{@link zx.soft.opentsdb.client.Lane}共用该匹配规则。
+ *
+ * @author wanggang
+ *
+ */
+public final class GlobPattern {
+
+	private static final String[] NO_CAPTURES = new String[0];
+
+	private final String pattern;
+
+	// 按*拆分后的字面片段
+	private final String[] segments;
+
+	private GlobPattern(String pattern) {
+		this.pattern = pattern;
+		this.segments = pattern.split("\\*", -1);
+	}
+
+	public static GlobPattern compile(String pattern) {
+		return new GlobPattern(pattern);
+	}
+
+	/**
+	 * 第一个*之前的字面前缀，没有*时为整个模式
+	 */
+	public String literalPrefix() {
+		return segments[0];
+	}
+
+	/**
+	 * 整个名字是否匹配
+	 */
+	public boolean matches(String name) {
+		return match(name) != null;
+	}
+
+	/**
+	 * 校验整个名字，返回每个*依次匹配的部分，不匹配时返回null
+	 */
+	public String[] match(String name) {
+		final String first = segments[0];
+		if (segments.length == 1) {
+			return name.equals(first) ? NO_CAPTURES : null;
+		}
+		final String last = segments[segments.length - 1];
+		final int end = name.length() - last.length();
+		if (end < first.length() || !name.startsWith(first) || !name.endsWith(last)) {
+			return null;
+		}
+		final String[] captures = new String[segments.length - 1];
+		int pos = first.length();
+		for (int i = 1; i < segments.length - 1; i++) {
+			final int index = name.indexOf(segments[i], pos);
+			if (index < 0 || index + segments[i].length() > end) {
+				return null;
+			}
+			captures[i - 1] = name.substring(pos, index);
+			pos = index + segments[i].length();
+		}
+		captures[captures.length - 1] = name.substring(pos, end);
+		return captures;
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+}
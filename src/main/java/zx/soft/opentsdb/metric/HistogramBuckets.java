@@ -0,0 +1,117 @@
+package zx.soft.opentsdb.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 直方图分桶布局，创建时一次性计算好桶边界和桶名称，之后只做查找
+ * <p/>
+ * 对数-线性（HDR风格）分桶：每个2的幂次区间再线性均分为若干子桶，相对误差不超过1/子桶数。
+ * 不同实例只要使用相同的布局，各桶计数就可以在OpenTSDB中直接相加，得到整个集群准确的分位数。
+ *
+ * @author wanggang
+ *
+ */
+public class HistogramBuckets {
+
+	// 桶边界，第i个桶为[bounds[i], bounds[i + 1])
+	private final double[] bounds;
+
+	// 桶名称，格式为"下界,上界"，即/api/histogram中buckets的key
+	private final String[] labels;
+
+	private HistogramBuckets(double[] bounds) {
+		this.bounds = bounds;
+		this.labels = new String[bounds.length - 1];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = format(bounds[i]) + "," + format(bounds[i + 1]);
+		}
+	}
+
+	/**
+	 * 对数-线性分桶
+	 *
+	 * @param lowest 最小边界，小于该值的计入underflow，必须大于0
+	 * @param highest 最大边界，大于等于最后一个边界的计入overflow
+	 * @param subBuckets 每个2的幂次区间内的子桶数
+	 */
+	public static HistogramBuckets logLinear(double lowest, double highest, int subBuckets) {
+		if (lowest <= 0 || highest <= lowest || subBuckets <= 0) {
+			throw new IllegalArgumentException("require 0 < lowest < highest and subBuckets > 0");
+		}
+		final List<Double> bounds = new ArrayList<>();
+		double power = lowest;
+		while (power < highest) {
+			final double step = power / subBuckets;
+			for (int i = 0; i < subBuckets; i++) {
+				bounds.add(power + i * step);
+			}
+			power *= 2;
+		}
+		bounds.add(power);
+		final double[] result = new double[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return new HistogramBuckets(result);
+	}
+
+	/**
+	 * 使用指定的桶边界，边界需要严格递增
+	 */
+	public static HistogramBuckets of(double... bounds) {
+		if (bounds.length < 2) {
+			throw new IllegalArgumentException("at least two bounds are required");
+		}
+		for (int i = 1; i < bounds.length; i++) {
+			if (bounds[i] <= bounds[i - 1]) {
+				throw new IllegalArgumentException("bounds must be strictly increasing");
+			}
+		}
+		return new HistogramBuckets(bounds.clone());
+	}
+
+	/**
+	 * 桶个数
+	 */
+	public int size() {
+		return labels.length;
+	}
+
+	/**
+	 * 查找值所在的桶
+	 *
+	 * @return 桶下标；小于最小边界时返回-1，大于等于最大边界时返回{@link #size()}
+	 */
+	public int indexOf(double value) {
+		if (value < bounds[0]) {
+			return -1;
+		}
+		if (value >= bounds[bounds.length - 1]) {
+			return labels.length;
+		}
+		final int index = Arrays.binarySearch(bounds, value);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	public String label(int index) {
+		return labels[index];
+	}
+
+	public double lowerBound(int index) {
+		return bounds[index];
+	}
+
+	public double upperBound(int index) {
+		return bounds[index + 1];
+	}
+
+	private static String format(double bound) {
+		if (bound == Math.rint(bound) && Math.abs(bound) < Long.MAX_VALUE) {
+			return Long.toString((long) bound);
+		}
+		return Double.toString(bound);
+	}
+
+}
@@ -0,0 +1,122 @@
+package zx.soft.opentsdb.metric;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import zx.soft.opentsdb.json.JsonWriter;
+
+/**
+ * OpenTSDB 2.4分桶直方图数据，通过/api/histogram写入
+ * <p/>
+ * 只输出计数不为0的桶。
+ * {@link http://opentsdb.net/docs/build/html/api_http/histogram.html}
+ *
+ * @author wanggang
+ *
+ */
+public class OpenTsdbHistogram {
+
+	// 统计名称
+	private final String metric;
+
+	// 统计时间
+	private final long timestamp;
+
+	// 分桶布局
+	private final HistogramBuckets buckets;
+
+	// 各桶计数，与分桶布局一一对应
+	private final long[] counts;
+
+	// 小于最小边界的计数
+	private final long underflow;
+
+	// 大于等于最大边界的计数
+	private final long overflow;
+
+	// 统计维度数据key-value键值对
+	private final Map<String, String> tags = new HashMap<>();
+
+	public OpenTsdbHistogram(String metric, long timestamp, HistogramBuckets buckets, long[] counts, long underflow,
+			long overflow, Map<String, String> tags) {
+		if (counts.length != buckets.size()) {
+			throw new IllegalArgumentException("counts must match the bucket layout");
+		}
+		this.metric = metric;
+		this.timestamp = timestamp;
+		this.buckets = buckets;
+		this.counts = counts;
+		this.underflow = underflow;
+		this.overflow = overflow;
+		if (tags != null) {
+			this.tags.putAll(tags);
+		}
+	}
+
+	/**
+	 * JSON格式组装，用于/api/histogram接口
+	 */
+	public void serializeJson(JsonWriter writer) {
+		writer.beginObject().name("metric").value(metric).name("timestamp").value(timestamp).name("overflow")
+				.value(overflow).name("underflow").value(underflow).name("buckets").beginObject();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				writer.name(buckets.label(i)).value(counts[i]);
+			}
+		}
+		writer.endObject().name("tags").beginObject();
+		for (Entry<String, String> entry : tags.entrySet()) {
+			writer.name(entry.getKey()).value(entry.getValue());
+		}
+		writer.endObject().endObject();
+	}
+
+	/**
+	 * 将直方图集合组装成JSON数组
+	 */
+	public static byte[] serializeJson(Collection<OpenTsdbHistogram> histograms) {
+		final JsonWriter writer = new JsonWriter(histograms.size() * 256);
+		writer.beginArray();
+		for (OpenTsdbHistogram histogram : histograms) {
+			histogram.serializeJson(writer);
+		}
+		return writer.endArray().toBytes();
+	}
+
+	public String getMetric() {
+		return metric;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public HistogramBuckets getBuckets() {
+		return buckets;
+	}
+
+	public long getCount(int index) {
+		return counts[index];
+	}
+
+	public long getUnderflow() {
+		return underflow;
+	}
+
+	public long getOverflow() {
+		return overflow;
+	}
+
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "->metric: " + metric + ",timestamp: " + timestamp + ",tags: "
+				+ tags + ",underflow: " + underflow + ",overflow: " + overflow;
+	}
+
+}
@@ -1,9 +1,13 @@
 package zx.soft.opentsdb.metric;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import zx.soft.opentsdb.json.JsonWriter;
 
 /**
  * OpenTSDB一条统计数据模型
@@ -25,15 +29,28 @@ public class OpenTsdbMetric {
 	// 统计维度数据key-value键值对
 	private Map<String, String> tags = new HashMap<>();
 
+	// 时间序列（metric+tags）的64位哈希，首次使用时计算，0表示尚未计算；
+	// 只用一个volatile字段，并发读取时不会看到已计算标志而哈希值仍为0
+	private volatile long seriesHash;
+
 	private OpenTsdbMetric() {
 	}
 
 	public OpenTsdbMetric(String metric, Number value, String... tags) {
+		this(metric, value, TimeUnit.SECONDS, tags);
+	}
+
+	/**
+	 * 使用当前时间创建数据
+	 *
+	 * @param precision 时间戳精度，秒或毫秒
+	 */
+	public OpenTsdbMetric(String metric, Number value, TimeUnit precision, String... tags) {
 		if (tags.length % 2 != 0) {
 			throw new RuntimeException("tags format: k1, v1, k2, v2...");
 		}
 		this.metric = metric;
-		this.timestamp = System.currentTimeMillis() / 1000;
+		this.timestamp = toTimestamp(System.currentTimeMillis(), precision);
 		this.value = value;
 		for (int i = 0; i < tags.length; i += 2) {
 			this.tags.put(tags[i], tags[i + 1]);
@@ -44,6 +61,25 @@ public class OpenTsdbMetric {
 		return new Builder(metric);
 	}
 
+	/**
+	 * 将毫秒时间转换为指定精度的时间戳
+	 * <p/>
+	 * OpenTSDB按位数区分精度：10位为秒，13位为毫秒，两种序列化格式都原样输出时间戳。
+	 * 同一条时间序列在同一秒内上报多次时，只有毫秒精度才不会互相覆盖。
+	 *
+	 * @param millis 毫秒时间
+	 * @param precision 时间戳精度，只支持秒和毫秒
+	 */
+	public static long toTimestamp(long millis, TimeUnit precision) {
+		if (precision == TimeUnit.SECONDS) {
+			return millis / 1000;
+		}
+		if (precision == TimeUnit.MILLISECONDS) {
+			return millis;
+		}
+		throw new IllegalArgumentException("OpenTSDB timestamps are in seconds or milliseconds: " + precision);
+	}
+
 	/**
 	 * 命令组装
 	 */
@@ -56,6 +92,83 @@ public class OpenTsdbMetric {
 		return result.toString();
 	}
 
+	/**
+	 * JSON格式组装，用于/api/put接口
+	 */
+	public void serializeJson(JsonWriter writer) {
+		writer.beginObject().name("metric").value(metric).name("timestamp").value((Object) timestamp).name("value")
+				.value(value).name("tags").beginObject();
+		for (Entry<String, String> entry : tags.entrySet()) {
+			writer.name(entry.getKey()).value(entry.getValue());
+		}
+		writer.endObject().endObject();
+	}
+
+	/**
+	 * 将Metric集合组装成JSON数组
+	 */
+	public static byte[] serializeJson(Collection<OpenTsdbMetric> metrics) {
+		final JsonWriter writer = new JsonWriter(metrics.size() * 128);
+		writer.beginArray();
+		for (OpenTsdbMetric metric : metrics) {
+			metric.serializeJson(writer);
+		}
+		return writer.endArray().toBytes();
+	}
+
+	/**
+	 * 时间序列标识（metric+tags）的64位哈希，与tags的顺序无关
+	 * <p/>
+	 * 首次调用时计算并缓存，因此不应再修改{@link #getTags()}返回的tags。
+	 * 与String.hashCode相同，哈希值恰好为0时每次重新计算，结果不变。
+	 */
+	public long seriesHash() {
+		long hash = seriesHash;
+		if (hash == 0) {
+			hash = hash64(metric);
+			for (Entry<String, String> entry : tags.entrySet()) {
+				// 求和保证与tags的遍历顺序无关
+				hash += mix64(hash64(entry.getKey()) * 31 + hash64(entry.getValue()));
+			}
+			hash = mix64(hash);
+			seriesHash = hash;
+		}
+		return hash;
+	}
+
+	/**
+	 * 是否属于同一条时间序列
+	 */
+	public boolean sameSeries(OpenTsdbMetric other) {
+		return seriesHash() == other.seriesHash() && equals(metric, other.metric) && equals(tags, other.tags);
+	}
+
+	/**
+	 * 字符串的64位FNV-1a哈希
+	 */
+	public static long hash64(String value) {
+		long hash = 0xcbf29ce484222325L;
+		if (value != null) {
+			for (int i = 0; i < value.length(); i++) {
+				hash ^= value.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * MurmurHash3的64位混淆函数
+	 */
+	public static long mix64(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 
@@ -78,32 +191,45 @@ public class OpenTsdbMetric {
 		return Arrays.hashCode(new Object[] { metric, timestamp, value, tags });
 	}
 
+	/**
+	 * 每次build创建新的对象，build之后继续修改Builder不影响已创建的数据
+	 */
 	public static class Builder {
 
-		private final OpenTsdbMetric openTsdbMetric;
+		private final String metric;
+
+		private Long timestamp;
+
+		private Object value;
+
+		private final Map<String, String> tags = new HashMap<>();
 
 		public Builder(String metric) {
-			this.openTsdbMetric = new OpenTsdbMetric();
-			this.openTsdbMetric.metric = metric;
+			this.metric = metric;
 		}
 
 		public OpenTsdbMetric build() {
+			final OpenTsdbMetric openTsdbMetric = new OpenTsdbMetric();
+			openTsdbMetric.metric = metric;
+			openTsdbMetric.timestamp = timestamp;
+			openTsdbMetric.value = value;
+			openTsdbMetric.tags.putAll(tags);
 			return openTsdbMetric;
 		}
 
 		public Builder withValue(Object value) {
-			openTsdbMetric.value = value;
+			this.value = value;
 			return this;
 		}
 
 		public Builder withTimestamp(Long timestamp) {
-			openTsdbMetric.timestamp = timestamp;
+			this.timestamp = timestamp;
 			return this;
 		}
 
 		public Builder withTags(Map<String, String> tags) {
 			if (tags != null) {
-				openTsdbMetric.tags.putAll(tags);
+				this.tags.putAll(tags);
 			}
 			return this;
 		}
@@ -0,0 +1,84 @@
+package zx.soft.opentsdb.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import zx.soft.opentsdb.json.JsonWriter;
+
+/**
+ * /api/query/last查询请求，查询时间序列的最新数据点
+ * <p/>
+ * {@link http://opentsdb.net/docs/build/html/api_http/query/last.html}
+ *
+ * @author wanggang
+ *
+ */
+public class LastQuery {
+
+	// 向前扫描的小时数，0表示只查元数据表
+	private int backScan = 0;
+
+	// 统计名称列表
+	private final List<String> metrics = new ArrayList<>();
+
+	// 与统计名称一一对应的tags
+	private final List<Map<String, String>> tags = new ArrayList<>();
+
+	private LastQuery() {
+	}
+
+	public static Builder forMetric(String metric, Map<String, String> tags) {
+		return new Builder().andMetric(metric, tags);
+	}
+
+	public static class Builder {
+
+		private final LastQuery query = new LastQuery();
+
+		public Builder andMetric(String metric, Map<String, String> tags) {
+			query.metrics.add(metric);
+			query.tags.add(tags);
+			return this;
+		}
+
+		public Builder withBackScan(int backScan) {
+			query.backScan = backScan;
+			return this;
+		}
+
+		public LastQuery build() {
+			return query;
+		}
+
+	}
+
+	/**
+	 * JSON格式组装
+	 */
+	public byte[] serializeJson() {
+		final JsonWriter writer = new JsonWriter();
+		writer.beginObject().name("queries").beginArray();
+		for (int i = 0; i < metrics.size(); i++) {
+			writer.beginObject().name("metric").value(metrics.get(i)).name("tags").beginObject();
+			if (tags.get(i) != null) {
+				for (Entry<String, String> entry : tags.get(i).entrySet()) {
+					writer.name(entry.getKey()).value(entry.getValue());
+				}
+			}
+			writer.endObject().endObject();
+		}
+		writer.endArray().name("resolveNames").value(true).name("backScan").value(backScan);
+		return writer.endObject().toBytes();
+	}
+
+	public int getBackScan() {
+		return backScan;
+	}
+
+	public List<String> getMetrics() {
+		return metrics;
+	}
+
+}
@@ -0,0 +1,108 @@
+package zx.soft.opentsdb.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zx.soft.opentsdb.json.JsonWriter;
+
+/**
+ * /api/query查询请求
+ * <p/>
+ * {@link http://opentsdb.net/docs/build/html/api_http/query/index.html}
+ *
+ * @author wanggang
+ *
+ */
+public class OpenTsdbQuery {
+
+	// 开始时间，秒或毫秒
+	private long start;
+
+	// 结束时间，为null时查询到当前时间
+	private Long end;
+
+	// 是否返回毫秒精度的数据点
+	private boolean msResolution;
+
+	// 子查询列表
+	private final List<SubQuery> queries = new ArrayList<>();
+
+	private OpenTsdbQuery() {
+	}
+
+	public static Builder from(long start) {
+		return new Builder(start);
+	}
+
+	public static class Builder {
+
+		private final OpenTsdbQuery query;
+
+		public Builder(long start) {
+			this.query = new OpenTsdbQuery();
+			this.query.start = start;
+		}
+
+		public Builder withEnd(Long end) {
+			query.end = end;
+			return this;
+		}
+
+		public Builder withMsResolution(boolean msResolution) {
+			query.msResolution = msResolution;
+			return this;
+		}
+
+		public Builder addSubQuery(SubQuery subQuery) {
+			query.queries.add(subQuery);
+			return this;
+		}
+
+		public OpenTsdbQuery build() {
+			return query;
+		}
+
+	}
+
+	/**
+	 * JSON格式组装
+	 */
+	public byte[] serializeJson() {
+		final JsonWriter writer = new JsonWriter();
+		writer.beginObject().name("start").value(start);
+		if (end != null) {
+			writer.name("end").value(end.longValue());
+		}
+		if (msResolution) {
+			writer.name("msResolution").value(true);
+		}
+		writer.name("queries").beginArray();
+		for (SubQuery subQuery : queries) {
+			subQuery.serializeJson(writer);
+		}
+		return writer.endArray().endObject().toBytes();
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public Long getEnd() {
+		return end;
+	}
+
+	public boolean isMsResolution() {
+		return msResolution;
+	}
+
+	public List<SubQuery> getQueries() {
+		return queries;
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "->start: " + start + ",end: " + end + ",msResolution: "
+				+ msResolution + ",queries: " + queries;
+	}
+
+}
@@ -0,0 +1,349 @@
+package zx.soft.opentsdb.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 查询结果缓存，按(metric, tags, 聚合函数, 降采样, 时间桶)缓存已经固定不变的历史数据
+ * <p/>
+ * 查询时，完全落在历史区间内的时间桶优先从本地缓存读取，缺失的连续时间桶合并成一次查询，
+ * 最近还可能变化的尾部数据每次都从TSD查询。缓存按数据点个数限制大小，超出后按LRU淘汰。
+ * <p/>
+ * 注意：时间桶大小需要是降采样间隔的整数倍；计算变化率（rate）的子查询不缓存，
+ * 因为每个时间桶的第一个数据点缺少前一个点，无法计算变化率。
+ *
+ * @author wanggang
+ *
+ */
+public class QueryCache {
+
+	// 秒级时间戳的上限，大于该值时视为毫秒
+	private static final long MAX_SECONDS_TIMESTAMP = 9_999_999_999L;
+
+	/**
+	 * 实际查询TSD的接口
+	 */
+	public interface Fetcher {
+
+		List<QueryResult> fetch(OpenTsdbQuery query) throws IOException;
+
+	}
+
+	// 时间桶大小，毫秒
+	private final long bucketMillis;
+
+	// 数据写入后趋于稳定的时间，早于当前时间减去该值的时间桶才会被缓存
+	private final long settleMillis;
+
+	// 缓存的数据点个数上限
+	private final long maxDataPoints;
+
+	// 当前时间，毫秒
+	private final LongSupplier clock;
+
+	// 按访问顺序排列，用于LRU淘汰
+	private final LinkedHashMap<String, List<QueryResult>> buckets = new LinkedHashMap<>(16, 0.75f, true);
+
+	// 当前缓存的数据点个数
+	private long cachedDataPoints = 0;
+
+	private long hitCount = 0;
+
+	private long missCount = 0;
+
+	private QueryCache(Builder builder) {
+		this.bucketMillis = builder.bucketMillis;
+		this.settleMillis = builder.settleMillis;
+		this.maxDataPoints = builder.maxDataPoints;
+		this.clock = builder.clock;
+	}
+
+	public static Builder withBucketSize(long bucketSize, TimeUnit unit) {
+		return new Builder(unit.toMillis(bucketSize));
+	}
+
+	public static class Builder {
+
+		private final long bucketMillis;
+		private long settleMillis = TimeUnit.MINUTES.toMillis(1);
+		private long maxDataPoints = 1_000_000L;
+		private LongSupplier clock = System::currentTimeMillis;
+
+		private Builder(long bucketMillis) {
+			if (bucketMillis <= 0) {
+				throw new IllegalArgumentException("bucket size must be positive");
+			}
+			this.bucketMillis = bucketMillis;
+		}
+
+		/**
+		 * 数据写入后趋于稳定的时间，默认1分钟
+		 */
+		public Builder withSettleTime(long settleTime, TimeUnit unit) {
+			this.settleMillis = unit.toMillis(settleTime);
+			return this;
+		}
+
+		/**
+		 * 缓存的数据点个数上限，默认100万
+		 */
+		public Builder withMaxDataPoints(long maxDataPoints) {
+			this.maxDataPoints = maxDataPoints;
+			return this;
+		}
+
+		/**
+		 * 毫秒时钟
+		 */
+		public Builder withClock(LongSupplier clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		public QueryCache build() {
+			return new QueryCache(this);
+		}
+
+	}
+
+	/**
+	 * 查询数据，历史时间桶优先使用缓存
+	 */
+	public List<QueryResult> query(OpenTsdbQuery query, Fetcher fetcher) throws IOException {
+		final List<QueryResult> results = new ArrayList<>();
+		for (SubQuery subQuery : query.getQueries()) {
+			results.addAll(query(query, subQuery, fetcher));
+		}
+		return results;
+	}
+
+	private List<QueryResult> query(OpenTsdbQuery query, SubQuery subQuery, Fetcher fetcher) throws IOException {
+		final long now = clock.getAsLong();
+		final long start = toMillis(query.getStart());
+		final long end = query.getEnd() == null ? now : toMillis(query.getEnd());
+		final boolean ms = query.isMsResolution();
+		if (subQuery.isRate() || end < start) {
+			return fetcher.fetch(subQuery(start, end, ms, subQuery));
+		}
+
+		// [first, stable)区间内的时间桶都可以缓存
+		final long first = floor(start);
+		final long stable = Math.min(floor(now - settleMillis), floor(end) + bucketMillis);
+		final String prefix = keyPrefix(subQuery, ms);
+
+		final Map<Long, List<QueryResult>> found = new HashMap<>();
+		synchronized (this) {
+			for (long bucket = first; bucket < stable; bucket += bucketMillis) {
+				final List<QueryResult> cached = buckets.get(prefix + bucket);
+				if (cached != null) {
+					found.put(bucket, cached);
+					hitCount++;
+				} else {
+					missCount++;
+				}
+			}
+		}
+
+		// 缺失的连续时间桶合并成一次查询
+		long missingStart = -1;
+		for (long bucket = first; bucket <= stable; bucket += bucketMillis) {
+			final boolean missing = bucket < stable && !found.containsKey(bucket);
+			if (missing && missingStart < 0) {
+				missingStart = bucket;
+			} else if (!missing && missingStart >= 0) {
+				fetchBuckets(fetcher, subQuery, ms, prefix, missingStart, bucket, found);
+				missingStart = -1;
+			}
+		}
+
+		final SeriesMerger merger = new SeriesMerger(start, end, ms);
+		for (long bucket = first; bucket < stable; bucket += bucketMillis) {
+			merger.addAll(found.get(bucket));
+		}
+		// 尾部数据不缓存
+		if (stable <= end) {
+			merger.addAll(fetcher.fetch(subQuery(Math.max(stable, start), end, ms, subQuery)));
+		}
+		return merger.build();
+	}
+
+	/**
+	 * 查询[from, to)区间内的时间桶，拆分后放入缓存
+	 */
+	private void fetchBuckets(Fetcher fetcher, SubQuery subQuery, boolean ms, String prefix, long from, long to,
+			Map<Long, List<QueryResult>> found) throws IOException {
+		final Map<Long, List<QueryResult>> fetched = new HashMap<>();
+		for (long bucket = from; bucket < to; bucket += bucketMillis) {
+			fetched.put(bucket, new ArrayList<QueryResult>());
+		}
+		for (QueryResult result : fetcher.fetch(subQuery(from, to - 1, ms, subQuery))) {
+			int begin = 0;
+			while (begin < result.size()) {
+				final long bucket = floor(toMillis(result.getTimestamp(begin), ms));
+				int stop = begin + 1;
+				while (stop < result.size() && floor(toMillis(result.getTimestamp(stop), ms)) == bucket) {
+					stop++;
+				}
+				final List<QueryResult> slices = fetched.get(bucket);
+				if (slices != null) {
+					slices.add(slice(result, begin, stop));
+				}
+				begin = stop;
+			}
+		}
+
+		synchronized (this) {
+			for (Map.Entry<Long, List<QueryResult>> entry : fetched.entrySet()) {
+				final List<QueryResult> previous = buckets.put(prefix + entry.getKey(), entry.getValue());
+				cachedDataPoints += weight(entry.getValue()) - (previous == null ? 0 : weight(previous));
+			}
+			evict();
+		}
+		found.putAll(fetched);
+	}
+
+	private void evict() {
+		final Iterator<List<QueryResult>> iterator = buckets.values().iterator();
+		while (cachedDataPoints > maxDataPoints && iterator.hasNext()) {
+			cachedDataPoints -= weight(iterator.next());
+			iterator.remove();
+		}
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getCachedDataPoints() {
+		return cachedDataPoints;
+	}
+
+	public synchronized void clear() {
+		buckets.clear();
+		cachedDataPoints = 0;
+	}
+
+	private long floor(long millis) {
+		return Math.floorDiv(millis, bucketMillis) * bucketMillis;
+	}
+
+	private static long toMillis(long timestamp) {
+		return timestamp > MAX_SECONDS_TIMESTAMP ? timestamp : timestamp * 1000;
+	}
+
+	private static long toMillis(long timestamp, boolean ms) {
+		return ms ? timestamp : timestamp * 1000;
+	}
+
+	/**
+	 * 每个时间桶按数据点个数计算大小，每条序列额外计1，避免空序列不占空间
+	 */
+	private static long weight(List<QueryResult> results) {
+		long weight = 1;
+		for (QueryResult result : results) {
+			weight += result.size() + 1;
+		}
+		return weight;
+	}
+
+	private static OpenTsdbQuery subQuery(long start, long end, boolean ms, SubQuery subQuery) {
+		return OpenTsdbQuery.from(start).withEnd(end).withMsResolution(ms).addSubQuery(subQuery).build();
+	}
+
+	private static String keyPrefix(SubQuery subQuery, boolean ms) {
+		return subQuery.getMetric() + '|' + subQuery.getAggregator() + '|' + subQuery.getDownsample() + '|'
+				+ new TreeMap<>(subQuery.getTags()) + '|' + ms + '|';
+	}
+
+	private static QueryResult slice(QueryResult result, int from, int to) {
+		final long[] timestamps = new long[to - from];
+		final double[] values = new double[to - from];
+		for (int i = from; i < to; i++) {
+			timestamps[i - from] = result.getTimestamp(i);
+			values[i - from] = result.getValue(i);
+		}
+		return new QueryResult(result.getMetric(), result.getTags(), result.getAggregateTags(), timestamps, values,
+				timestamps.length);
+	}
+
+	/**
+	 * 按序列合并多个时间桶的数据，并截取到查询区间
+	 */
+	private static class SeriesMerger {
+
+		private final long start;
+		private final long end;
+		private final boolean ms;
+		private final Map<String, Series> series = new LinkedHashMap<>();
+
+		private SeriesMerger(long start, long end, boolean ms) {
+			this.start = start;
+			this.end = end;
+			this.ms = ms;
+		}
+
+		private void addAll(List<QueryResult> results) {
+			for (QueryResult result : results) {
+				final String key = result.getMetric() + '|' + new TreeMap<>(result.getTags());
+				Series merged = series.get(key);
+				if (merged == null) {
+					merged = new Series(result);
+					series.put(key, merged);
+				}
+				for (int i = 0; i < result.size(); i++) {
+					final long timestamp = toMillis(result.getTimestamp(i), ms);
+					if (timestamp >= start && timestamp <= end) {
+						merged.add(result.getTimestamp(i), result.getValue(i));
+					}
+				}
+			}
+		}
+
+		private List<QueryResult> build() {
+			final List<QueryResult> results = new ArrayList<>(series.size());
+			for (Series merged : series.values()) {
+				results.add(new QueryResult(merged.first.getMetric(), merged.first.getTags(),
+						merged.first.getAggregateTags(), merged.timestamps, merged.values, merged.size));
+			}
+			return results;
+		}
+
+	}
+
+	private static class Series {
+
+		private final QueryResult first;
+		private long[] timestamps = new long[16];
+		private double[] values = new double[16];
+		private int size = 0;
+
+		private Series(QueryResult first) {
+			this.first = first;
+		}
+
+		private void add(long timestamp, double value) {
+			if (size == timestamps.length) {
+				timestamps = Arrays.copyOf(timestamps, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			timestamps[size] = timestamp;
+			values[size] = value;
+			size++;
+		}
+
+	}
+
+}
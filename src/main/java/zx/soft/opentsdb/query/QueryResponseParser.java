@@ -0,0 +1,169 @@
+package zx.soft.opentsdb.query;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import zx.soft.opentsdb.json.JsonReader;
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+/**
+ * 查询响应的流式解析类，边读边解析，数据点直接写入基本类型数组
+ *
+ * @author wanggang
+ *
+ */
+public final class QueryResponseParser {
+
+	// 数据点数组初始大小
+	private static final int INITIAL_CAPACITY = 64;
+
+	private QueryResponseParser() {
+	}
+
+	/**
+	 * 解析/api/query的响应
+	 */
+	public static List<QueryResult> parseQuery(InputStream in) throws IOException {
+		final JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		final List<QueryResult> results = new ArrayList<>();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			results.add(readResult(reader));
+		}
+		reader.endArray();
+		return results;
+	}
+
+	/**
+	 * 解析/api/query/last的响应
+	 */
+	public static List<OpenTsdbMetric> parseLast(InputStream in) throws IOException {
+		final JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		final List<OpenTsdbMetric> results = new ArrayList<>();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			String metric = null;
+			Long timestamp = null;
+			Number value = null;
+			Map<String, String> tags = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "metric":
+					metric = reader.nextString();
+					break;
+				case "timestamp":
+					timestamp = reader.nextLong();
+					break;
+				case "value":
+					value = parseNumber(reader.nextString());
+					break;
+				case "tags":
+					tags = readTags(reader);
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			results.add(OpenTsdbMetric.named(metric).withTimestamp(timestamp).withValue(value).withTags(tags).build());
+		}
+		reader.endArray();
+		return results;
+	}
+
+	private static QueryResult readResult(JsonReader reader) throws IOException {
+		String metric = null;
+		Map<String, String> tags = Collections.emptyMap();
+		List<String> aggregateTags = Collections.emptyList();
+		long[] timestamps = new long[INITIAL_CAPACITY];
+		double[] values = new double[INITIAL_CAPACITY];
+		int size = 0;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "metric":
+				metric = reader.nextString();
+				break;
+			case "tags":
+				tags = readTags(reader);
+				break;
+			case "aggregateTags":
+				aggregateTags = new ArrayList<>();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					aggregateTags.add(reader.nextString());
+				}
+				reader.endArray();
+				break;
+			case "dps":
+				final boolean arrays = reader.peek() == JsonReader.Token.BEGIN_ARRAY;
+				if (arrays) {
+					reader.beginArray();
+				} else {
+					reader.beginObject();
+				}
+				while (reader.hasNext()) {
+					if (size == timestamps.length) {
+						final int capacity = size + (size >> 1);
+						timestamps = Arrays.copyOf(timestamps, capacity);
+						values = Arrays.copyOf(values, capacity);
+					}
+					if (arrays) {
+						// 请求中arrays=true时，数据点格式为[timestamp, value]
+						reader.beginArray();
+						timestamps[size] = reader.nextLong();
+						values[size] = reader.nextDouble();
+						reader.endArray();
+					} else {
+						timestamps[size] = reader.nextNameAsLong();
+						values[size] = reader.nextDouble();
+					}
+					size++;
+				}
+				if (arrays) {
+					reader.endArray();
+				} else {
+					reader.endObject();
+				}
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new QueryResult(metric, tags, aggregateTags, timestamps, values, size);
+	}
+
+	private static Map<String, String> readTags(JsonReader reader) throws IOException {
+		final Map<String, String> tags = new HashMap<>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			tags.put(reader.nextName(), reader.nextString());
+		}
+		reader.endObject();
+		return tags;
+	}
+
+	private static Number parseNumber(String value) {
+		if (value == null) {
+			return null;
+		}
+		for (int i = value.startsWith("-") ? 1 : 0; i < value.length(); i++) {
+			if (!Character.isDigit(value.charAt(i))) {
+				return Double.valueOf(value);
+			}
+		}
+		return Long.valueOf(value);
+	}
+
+}
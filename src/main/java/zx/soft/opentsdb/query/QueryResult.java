@@ -0,0 +1,87 @@
+package zx.soft.opentsdb.query;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一条时间序列的查询结果，数据点以基本类型数组保存
+ *
+ * @author wanggang
+ *
+ */
+public class QueryResult {
+
+	// 统计名称
+	private final String metric;
+
+	// 结果序列的tags
+	private final Map<String, String> tags;
+
+	// 被聚合掉的tag名称
+	private final List<String> aggregateTags;
+
+	// 时间戳，按时间升序
+	private final long[] timestamps;
+
+	// 与时间戳一一对应的值
+	private final double[] values;
+
+	// 数据点个数，数组可能比实际数据点多
+	private final int size;
+
+	public QueryResult(String metric, Map<String, String> tags, List<String> aggregateTags, long[] timestamps,
+			double[] values, int size) {
+		this.metric = metric;
+		this.tags = tags;
+		this.aggregateTags = aggregateTags;
+		this.timestamps = timestamps;
+		this.values = values;
+		this.size = size;
+	}
+
+	public String getMetric() {
+		return metric;
+	}
+
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	public List<String> getAggregateTags() {
+		return aggregateTags;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * 返回时间戳数组的拷贝
+	 */
+	public long[] getTimestamps() {
+		return Arrays.copyOf(timestamps, size);
+	}
+
+	/**
+	 * 返回值数组的拷贝
+	 */
+	public double[] getValues() {
+		return Arrays.copyOf(values, size);
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "->metric: " + metric + ",tags: " + tags + ",aggregateTags: "
+				+ aggregateTags + ",size: " + size;
+	}
+
+}
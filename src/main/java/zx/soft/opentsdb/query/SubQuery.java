@@ -0,0 +1,123 @@
+package zx.soft.opentsdb.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import zx.soft.opentsdb.json.JsonWriter;
+
+/**
+ * /api/query中的一条子查询
+ *
+ * @author wanggang
+ *
+ */
+public class SubQuery {
+
+	// 默认聚合函数
+	public static final String DEFAULT_AGGREGATOR = "sum";
+
+	// 统计名称
+	private String metric;
+
+	// 聚合函数，如sum、avg、max
+	private String aggregator = DEFAULT_AGGREGATOR;
+
+	// 降采样，如1m-avg，为null时不降采样
+	private String downsample;
+
+	// 是否计算变化率
+	private boolean rate;
+
+	// 过滤条件，值为*时按该tag分组
+	private Map<String, String> tags = new HashMap<>();
+
+	private SubQuery() {
+	}
+
+	public static Builder metric(String metric) {
+		return new Builder(metric);
+	}
+
+	public static class Builder {
+
+		private final SubQuery subQuery;
+
+		public Builder(String metric) {
+			this.subQuery = new SubQuery();
+			this.subQuery.metric = metric;
+		}
+
+		public Builder withAggregator(String aggregator) {
+			subQuery.aggregator = aggregator;
+			return this;
+		}
+
+		public Builder withDownsample(String downsample) {
+			subQuery.downsample = downsample;
+			return this;
+		}
+
+		public Builder withRate(boolean rate) {
+			subQuery.rate = rate;
+			return this;
+		}
+
+		public Builder withTags(Map<String, String> tags) {
+			if (tags != null) {
+				subQuery.tags.putAll(tags);
+			}
+			return this;
+		}
+
+		public SubQuery build() {
+			return subQuery;
+		}
+
+	}
+
+	/**
+	 * JSON格式组装
+	 */
+	public void serializeJson(JsonWriter writer) {
+		writer.beginObject().name("aggregator").value(aggregator).name("metric").value(metric);
+		if (downsample != null) {
+			writer.name("downsample").value(downsample);
+		}
+		if (rate) {
+			writer.name("rate").value(true);
+		}
+		writer.name("tags").beginObject();
+		for (Entry<String, String> entry : tags.entrySet()) {
+			writer.name(entry.getKey()).value(entry.getValue());
+		}
+		writer.endObject().endObject();
+	}
+
+	public String getMetric() {
+		return metric;
+	}
+
+	public String getAggregator() {
+		return aggregator;
+	}
+
+	public String getDownsample() {
+		return downsample;
+	}
+
+	public boolean isRate() {
+		return rate;
+	}
+
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "->metric: " + metric + ",aggregator: " + aggregator
+				+ ",downsample: " + downsample + ",rate: " + rate + ",tags: " + tags;
+	}
+
+}
@@ -0,0 +1,349 @@
+package zx.soft.opentsdb.reporter;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import zx.soft.opentsdb.metric.HistogramBuckets;
+import zx.soft.opentsdb.metric.OpenTsdbHistogram;
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * 将一个MetricRegistry中的Metric转换为OpenTSDB数据
+ * <p/>
+ * 由{@link OpenTsdbReporter}和{@link MultiRegistryReporter}共用，每个注册类一个实例，
+ * 分桶直方图模式下保存了上个周期的累计次数。每个Metric名字对应的输出名、Tags和子指标
+ * （经过{@link MetricRules}处理后）只计算一次并缓存。
+ *
+ * @author wanggang
+ *
+ */
+class MetricConverter {
+
+	// 前缀名
+	private final String prefix;
+	// Tags列表
+	private final Map<String, String> tags;
+	// 比率转换系数
+	private final double rateFactor;
+	// 时长转换系数
+	private final double durationFactor;
+	// 直方图分桶布局，为null时输出分位数
+	private final HistogramBuckets histogramBuckets;
+	// 上个周期Timer和Histogram的累计次数，用于计算本周期新增次数
+	private final Map<String, Long> lastCounts = new ConcurrentHashMap<>();
+	// Metric规则，为null时不处理
+	private final MetricRules rules;
+	// 每个Metric名字的输出目标
+	private final Map<String, Target> targets = new ConcurrentHashMap<>();
+
+	MetricConverter(String prefix, Map<String, String> tags, TimeUnit rateUnit, TimeUnit durationUnit,
+			HistogramBuckets histogramBuckets, MetricRules rules) {
+		this.prefix = prefix;
+		this.tags = tags;
+		this.rateFactor = rateUnit.toSeconds(1);
+		this.durationFactor = 1.0 / durationUnit.toNanos(1);
+		this.histogramBuckets = histogramBuckets;
+		this.rules = rules;
+	}
+
+	/**
+	 * 一个Metric的输出名（含前缀）、Tags和子指标
+	 */
+	private static class Target {
+
+		private final String name;
+		private final Map<String, String> tags;
+		// 为null时输出全部子指标
+		private final Set<String> select;
+
+		private Target(String name, Map<String, String> tags, Set<String> select) {
+			this.name = name;
+			this.tags = tags;
+			this.select = select;
+		}
+
+		private boolean selects(String subMetric) {
+			return select == null || select.contains(subMetric);
+		}
+
+	}
+
+	// 被规则排除的Metric
+	private static final Target EXCLUDED = new Target(null, null, null);
+
+	// 缓存的名字数超过该值时清空，避免注册类中删除的Metric一直占用内存
+	private static final int MAX_CACHED_TARGETS = 100_000;
+
+	private Target target(String name) {
+		Target target = targets.get(name);
+		if (target == null) {
+			if (rules == null) {
+				target = new Target(prefix(name), tags, null);
+			} else {
+				final MetricRules.Resolution resolution = rules.resolve(name);
+				target = resolution.included ? new Target(prefix(resolution.name), resolution.applyTags(tags),
+						resolution.select) : EXCLUDED;
+			}
+			if (targets.size() >= MAX_CACHED_TARGETS) {
+				targets.clear();
+			}
+			targets.put(name, target);
+		}
+		return target;
+	}
+
+	/**
+	 * Metric集合
+	 */
+	private static class MetricsCollector {
+
+		// 输出目标
+		private final Target target;
+		// 时间戳
+		private final long timestamp;
+		// Metric集合
+		private final Set<OpenTsdbMetric> metrics = new HashSet<>();
+
+		private MetricsCollector(Target target, long timestamp) {
+			this.target = target;
+			this.timestamp = timestamp;
+		}
+
+		public static MetricsCollector createNew(Target target, long timestamp) {
+			return new MetricsCollector(target, timestamp);
+		}
+
+		public MetricsCollector addMetric(String metricName, Object value) {
+			if (target.selects(metricName)) {
+				this.metrics.add(OpenTsdbMetric.named(MetricRegistry.name(target.name, metricName))
+						.withTimestamp(timestamp).withValue(value).withTags(target.tags).build());
+			}
+			return this;
+		}
+
+		public Set<OpenTsdbMetric> build() {
+			return metrics;
+		}
+
+	}
+
+	/**
+	 * 转换一个周期的Metric
+	 *
+	 * @param metrics 输出的数据点
+	 * @param bucketed 输出的分桶直方图
+	 */
+	@SuppressWarnings("rawtypes")
+	void convert(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+			SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers,
+			long timestamp, Set<OpenTsdbMetric> metrics, List<OpenTsdbHistogram> bucketed) {
+
+		for (Map.Entry<String, Gauge> g : gauges.entrySet()) {
+			final Target target = target(g.getKey());
+			if (target == EXCLUDED || !target.selects("value")) {
+				continue;
+			}
+			if (g.getValue().getValue() instanceof Collection && ((Collection) g.getValue().getValue()).isEmpty()) {
+				continue;
+			}
+			metrics.add(buildGauge(target, g.getValue(), timestamp));
+		}
+
+		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+			final Target target = target(entry.getKey());
+			if (target != EXCLUDED && target.selects("count")) {
+				metrics.add(buildCounter(target, entry.getValue(), timestamp));
+			}
+		}
+
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			final Target target = target(entry.getKey());
+			if (target == EXCLUDED) {
+				continue;
+			}
+			if (histogramBuckets != null) {
+				metrics.addAll(buildBucketedHistogram(entry.getKey(), target, entry.getValue(), timestamp, bucketed));
+			} else {
+				metrics.addAll(buildHistograms(target, entry.getValue(), timestamp));
+			}
+		}
+
+		for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+			final Target target = target(entry.getKey());
+			if (target != EXCLUDED) {
+				metrics.addAll(buildMeters(target, entry.getValue(), timestamp));
+			}
+		}
+
+		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+			final Target target = target(entry.getKey());
+			if (target == EXCLUDED) {
+				continue;
+			}
+			if (histogramBuckets != null) {
+				metrics.addAll(buildBucketedTimer(entry.getKey(), target, entry.getValue(), timestamp, bucketed));
+			} else {
+				metrics.addAll(buildTimers(target, entry.getValue(), timestamp));
+			}
+		}
+	}
+
+	private Set<OpenTsdbMetric> buildTimers(Target target, Timer timer, long timestamp) {
+
+		final MetricsCollector collector = MetricsCollector.createNew(target, timestamp);
+		final Snapshot snapshot = timer.getSnapshot();
+
+		return collector
+				.addMetric("count", timer.getCount())
+				// 转换比率
+				.addMetric("m15", convertRate(timer.getFifteenMinuteRate()))
+				.addMetric("m5", convertRate(timer.getFiveMinuteRate()))
+				.addMetric("m1", convertRate(timer.getOneMinuteRate()))
+				.addMetric("mean_rate", convertRate(timer.getMeanRate()))
+				// 转换时间长度
+				.addMetric("max", convertDuration(snapshot.getMax()))
+				.addMetric("min", convertDuration(snapshot.getMin()))
+				.addMetric("mean", convertDuration(snapshot.getMean()))
+				.addMetric("stddev", convertDuration(snapshot.getStdDev()))
+				.addMetric("median", convertDuration(snapshot.getMedian()))
+				.addMetric("p75", convertDuration(snapshot.get75thPercentile()))
+				.addMetric("p95", convertDuration(snapshot.get95thPercentile()))
+				.addMetric("p98", convertDuration(snapshot.get98thPercentile()))
+				.addMetric("p99", convertDuration(snapshot.get99thPercentile()))
+				.addMetric("p999", convertDuration(snapshot.get999thPercentile())).build();
+	}
+
+	private Set<OpenTsdbMetric> buildHistograms(Target target, Histogram histogram, long timestamp) {
+
+		final MetricsCollector collector = MetricsCollector.createNew(target, timestamp);
+		final Snapshot snapshot = histogram.getSnapshot();
+
+		return collector.addMetric("count", histogram.getCount()).addMetric("max", snapshot.getMax())
+				.addMetric("min", snapshot.getMin()).addMetric("mean", snapshot.getMean())
+				.addMetric("stddev", snapshot.getStdDev()).addMetric("median", snapshot.getMedian())
+				.addMetric("p75", snapshot.get75thPercentile()).addMetric("p95", snapshot.get95thPercentile())
+				.addMetric("p98", snapshot.get98thPercentile()).addMetric("p99", snapshot.get99thPercentile())
+				.addMetric("p999", snapshot.get999thPercentile()).build();
+	}
+
+	private Set<OpenTsdbMetric> buildBucketedTimer(String name, Target target, Timer timer, long timestamp,
+			List<OpenTsdbHistogram> bucketed) {
+		if (target.selects(MetricRules.BUCKETS)) {
+			addBuckets(bucketed, name, target, timer.getCount(), timer.getSnapshot(), true, timestamp);
+		}
+		return MetricsCollector.createNew(target, timestamp).addMetric("count", timer.getCount())
+				.addMetric("m1", convertRate(timer.getOneMinuteRate())).build();
+	}
+
+	private Set<OpenTsdbMetric> buildBucketedHistogram(String name, Target target, Histogram histogram,
+			long timestamp, List<OpenTsdbHistogram> bucketed) {
+		if (target.selects(MetricRules.BUCKETS)) {
+			addBuckets(bucketed, name, target, histogram.getCount(), histogram.getSnapshot(), false, timestamp);
+		}
+		return MetricsCollector.createNew(target, timestamp).addMetric("count", histogram.getCount())
+				.build();
+	}
+
+	/**
+	 * 将快照中的样本分桶，并按本周期新增次数缩放，使各实例、各周期的计数可以直接相加
+	 */
+	private void addBuckets(List<OpenTsdbHistogram> bucketed, String name, Target target, long count,
+			Snapshot snapshot, boolean durations, long timestamp) {
+		final Long last = lastCounts.put(name, count);
+		// 首个周期或计数被重置时，以累计次数作为新增次数
+		final long delta = last == null || last > count ? count : count - last;
+		final long[] values = snapshot.getValues();
+		if (delta == 0 || values.length == 0) {
+			return;
+		}
+
+		// 下标0为underflow，最后一个为overflow
+		final long[] samples = new long[histogramBuckets.size() + 2];
+		for (long value : values) {
+			samples[histogramBuckets.indexOf(durations ? convertDuration(value) : value) + 1]++;
+		}
+		final long[] scaled = apportion(samples, values.length, delta);
+		final long[] counts = new long[histogramBuckets.size()];
+		System.arraycopy(scaled, 1, counts, 0, counts.length);
+		bucketed.add(new OpenTsdbHistogram(target.name, timestamp, histogramBuckets, counts, scaled[0],
+				scaled[scaled.length - 1], target.tags));
+	}
+
+	/**
+	 * 按最大余数法将样本计数缩放到total，保证缩放后总数不变
+	 */
+	private static long[] apportion(long[] samples, int sampleCount, long total) {
+		final double scale = (double) total / sampleCount;
+		final long[] result = new long[samples.length];
+		final double[] remainders = new double[samples.length];
+		long assigned = 0;
+		for (int i = 0; i < samples.length; i++) {
+			final double exact = samples[i] * scale;
+			result[i] = (long) exact;
+			remainders[i] = exact - result[i];
+			assigned += result[i];
+		}
+		for (long remaining = total - assigned; remaining > 0; remaining--) {
+			int largest = 0;
+			for (int i = 1; i < remainders.length; i++) {
+				if (remainders[i] > remainders[largest]) {
+					largest = i;
+				}
+			}
+			result[largest]++;
+			remainders[largest] = -1;
+		}
+		return result;
+	}
+
+	private Set<OpenTsdbMetric> buildMeters(Target target, Meter meter, long timestamp) {
+
+		final MetricsCollector collector = MetricsCollector.createNew(target, timestamp);
+
+		return collector
+				.addMetric("count", meter.getCount())
+				// convert rate
+				.addMetric("mean_rate", convertRate(meter.getMeanRate()))
+				.addMetric("m1", convertRate(meter.getOneMinuteRate()))
+				.addMetric("m5", convertRate(meter.getFiveMinuteRate()))
+				.addMetric("m15", convertRate(meter.getFifteenMinuteRate())).build();
+	}
+
+	private OpenTsdbMetric buildCounter(Target target, Counter counter, long timestamp) {
+		return OpenTsdbMetric.named(MetricRegistry.name(target.name, "count")).withTimestamp(timestamp)
+				.withValue(counter.getCount()).withTags(target.tags).build();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private OpenTsdbMetric buildGauge(Target target, Gauge gauge, long timestamp) {
+		return OpenTsdbMetric.named(MetricRegistry.name(target.name, "value")).withValue(gauge.getValue())
+				.withTimestamp(timestamp).withTags(target.tags).build();
+	}
+
+	private String prefix(String... components) {
+		return MetricRegistry.name(prefix, components);
+	}
+
+	private double convertRate(double rate) {
+		return rate * rateFactor;
+	}
+
+	private double convertDuration(double duration) {
+		return duration * durationFactor;
+	}
+
+}
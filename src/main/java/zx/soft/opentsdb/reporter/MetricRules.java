@@ -0,0 +1,275 @@
+package zx.soft.opentsdb.reporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import zx.soft.opentsdb.metric.GlobPattern;
+
+/**
+ * Metric规则：过滤、重命名、增删Tags、选择子指标
+ * <p/>
+ * 规则的名字模式支持通配符*，例如"jvm.gc.*"、"http.*.requests"。所有规则在构建时编译为按字面前缀
+ * （第一个*之前的部分）组织的前缀树，匹配一个名字只需沿树走一遍，再对候选规则校验剩余部分，不使用正则表达式。
+ * 每个Metric名字的匹配结果由Reporter缓存，之后每个周期只是一次缓存查找。
+ * <p/>
+ * 规则按添加顺序匹配：
+ * <ul>
+ * <li>include/exclude：第一个匹配的规则决定是否输出；都不匹配时，没有include规则则输出，否则不输出</li>
+ * <li>rename：第一个匹配的规则生效，替换中的$1、$2...依次为模式中*匹配的部分</li>
+ * <li>addTags/dropTags：所有匹配的规则依次生效</li>
+ * <li>select：第一个匹配的规则生效，只输出给定的子指标，例如Timer的count、m1、p99；
+ * 开启分桶直方图时，/api/histogram的分桶计数对应子指标{@link #BUCKETS}</li>
+ * </ul>
+ *
+ * @author wanggang
+ *
+ */
+public class MetricRules {
+
+	// 分桶直方图的子指标名，用于select
+	public static final String BUCKETS = "buckets";
+
+	private enum Type {
+		INCLUDE, EXCLUDE, RENAME, ADD_TAGS, DROP_TAGS, SELECT
+	}
+
+	/**
+	 * 单条规则
+	 */
+	private static class Rule {
+
+		private final int order;
+		private final Type type;
+		private final GlobPattern pattern;
+		private final String replacement;
+		private final Map<String, String> tags;
+		private final Set<String> names;
+
+		private Rule(int order, Type type, String pattern, String replacement, Map<String, String> tags,
+				Set<String> names) {
+			this.order = order;
+			this.type = type;
+			this.pattern = GlobPattern.compile(pattern);
+			this.replacement = replacement;
+			this.tags = tags;
+			this.names = names;
+		}
+
+		private String rename(String[] captures) {
+			String result = replacement;
+			for (int i = captures.length; i > 0; i--) {
+				result = result.replace("$" + i, captures[i - 1]);
+			}
+			return result;
+		}
+
+	}
+
+	/**
+	 * 前缀树节点
+	 */
+	private static class Node {
+
+		private final Map<Character, Node> children = new HashMap<>();
+		// 字面前缀在此结束的规则
+		private final List<Rule> rules = new ArrayList<>();
+
+	}
+
+	/**
+	 * 一个Metric名字的匹配结果
+	 */
+	static class Resolution {
+
+		// 是否输出
+		final boolean included;
+		// 重命名后的名字，不含前缀
+		final String name;
+		// 增加的Tags
+		final Map<String, String> addTags;
+		// 删除的Tag名
+		final Set<String> dropTags;
+		// 输出的子指标，null表示全部输出
+		final Set<String> select;
+
+		private Resolution(boolean included, String name, Map<String, String> addTags, Set<String> dropTags,
+				Set<String> select) {
+			this.included = included;
+			this.name = name;
+			this.addTags = addTags;
+			this.dropTags = dropTags;
+			this.select = select;
+		}
+
+		/**
+		 * 合并全局Tags
+		 */
+		Map<String, String> applyTags(Map<String, String> tags) {
+			if (addTags.isEmpty() && dropTags.isEmpty()) {
+				return tags;
+			}
+			final Map<String, String> result = tags == null ? new LinkedHashMap<String, String>()
+					: new LinkedHashMap<>(tags);
+			result.putAll(addTags);
+			result.keySet().removeAll(dropTags);
+			return Collections.unmodifiableMap(result);
+		}
+
+	}
+
+	private final Node root = new Node();
+
+	private final boolean hasIncludes;
+
+	private MetricRules(Builder builder) {
+		boolean includes = false;
+		for (Rule rule : builder.rules) {
+			Node node = root;
+			for (char c : rule.pattern.literalPrefix().toCharArray()) {
+				node = node.children.computeIfAbsent(c, k -> new Node());
+			}
+			node.rules.add(rule);
+			includes |= rule.type == Type.INCLUDE;
+		}
+		this.hasIncludes = includes;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static class Builder {
+
+		private final List<Rule> rules = new ArrayList<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * 输出匹配的Metric
+		 */
+		public Builder include(String pattern) {
+			return add(Type.INCLUDE, pattern, null, null, null);
+		}
+
+		/**
+		 * 不输出匹配的Metric
+		 */
+		public Builder exclude(String pattern) {
+			return add(Type.EXCLUDE, pattern, null, null, null);
+		}
+
+		/**
+		 * 重命名匹配的Metric，replacement中可以用$1、$2...引用*匹配的部分
+		 */
+		public Builder rename(String pattern, String replacement) {
+			return add(Type.RENAME, pattern, replacement, null, null);
+		}
+
+		/**
+		 * 给匹配的Metric增加Tags
+		 *
+		 * @param tags 依次为tag名和tag值
+		 */
+		public Builder addTags(String pattern, String... tags) {
+			if (tags.length % 2 != 0) {
+				throw new IllegalArgumentException("Tags must be name/value pairs");
+			}
+			final Map<String, String> map = new LinkedHashMap<>();
+			for (int i = 0; i < tags.length; i += 2) {
+				map.put(tags[i], tags[i + 1]);
+			}
+			return add(Type.ADD_TAGS, pattern, null, map, null);
+		}
+
+		/**
+		 * 删除匹配的Metric的Tags，包括Reporter的全局Tags
+		 */
+		public Builder dropTags(String pattern, String... tagNames) {
+			return add(Type.DROP_TAGS, pattern, null, null, new HashSet<>(Arrays.asList(tagNames)));
+		}
+
+		/**
+		 * 只输出匹配的Metric的部分子指标，例如count、m1、p99；Counter为count，Gauge为value，
+		 * 分桶直方图为{@link MetricRules#BUCKETS}
+		 */
+		public Builder select(String pattern, String... subMetrics) {
+			return add(Type.SELECT, pattern, null, null, new HashSet<>(Arrays.asList(subMetrics)));
+		}
+
+		private Builder add(Type type, String pattern, String replacement, Map<String, String> tags,
+				Set<String> names) {
+			rules.add(new Rule(rules.size(), type, pattern, replacement, tags, names));
+			return this;
+		}
+
+		public MetricRules build() {
+			return new MetricRules(this);
+		}
+
+	}
+
+	/**
+	 * 匹配一个Metric名字，结果应由调用方缓存
+	 */
+	Resolution resolve(String name) {
+		final List<Rule> candidates = new ArrayList<>();
+		Node node = root;
+		candidates.addAll(node.rules);
+		for (int i = 0; i < name.length() && node != null; i++) {
+			node = node.children.get(name.charAt(i));
+			if (node != null) {
+				candidates.addAll(node.rules);
+			}
+		}
+		candidates.sort((a, b) -> Integer.compare(a.order, b.order));
+
+		Boolean included = null;
+		String renamed = null;
+		Set<String> select = null;
+		final Map<String, String> addTags = new LinkedHashMap<>();
+		final Set<String> dropTags = new HashSet<>();
+		for (Rule rule : candidates) {
+			final String[] captures = rule.pattern.match(name);
+			if (captures == null) {
+				continue;
+			}
+			switch (rule.type) {
+			case INCLUDE:
+			case EXCLUDE:
+				if (included == null) {
+					included = rule.type == Type.INCLUDE;
+				}
+				break;
+			case RENAME:
+				if (renamed == null) {
+					renamed = rule.rename(captures);
+				}
+				break;
+			case ADD_TAGS:
+				addTags.putAll(rule.tags);
+				dropTags.removeAll(rule.tags.keySet());
+				break;
+			case DROP_TAGS:
+				dropTags.addAll(rule.names);
+				addTags.keySet().removeAll(rule.names);
+				break;
+			case SELECT:
+				if (select == null) {
+					select = rule.names;
+				}
+				break;
+			}
+		}
+		return new Resolution(included == null ? !hasIncludes : included, renamed == null ? name : renamed,
+				addTags, dropTags, select);
+	}
+
+}
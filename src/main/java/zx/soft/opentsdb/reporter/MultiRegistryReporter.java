@@ -0,0 +1,271 @@
+package zx.soft.opentsdb.reporter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import zx.soft.opentsdb.client.OpenTsdbClient;
+import zx.soft.opentsdb.metric.HistogramBuckets;
+import zx.soft.opentsdb.metric.OpenTsdbHistogram;
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+import zx.soft.utils.log.LogbackUtil;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * 多注册类Reporter，将多个MetricRegistry的数据合并后通过同一个客户端发送
+ * <p/>
+ * 多租户服务每个租户一个注册类时，使用一个Reporter线程，每个周期所有注册类的数据合并为一个集合，
+ * 再按客户端的批量大小拆分请求，而不是每个注册类各自一个线程、各自发送小批量请求。
+ * 每个注册类可以有自己的前缀名、Tags和过滤器。
+ *
+ * @author wanggang
+ *
+ */
+public class MultiRegistryReporter implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MultiRegistryReporter.class);
+
+	// OpenTSDB客户端
+	private final OpenTsdbClient opentsdb;
+	// 时钟对象
+	private final Clock clock;
+	// 比率单位
+	private final TimeUnit rateUnit;
+	// 时长单位
+	private final TimeUnit durationUnit;
+	// 直方图分桶布局
+	private final HistogramBuckets histogramBuckets;
+	// 时间戳精度
+	private final TimeUnit timestampPrecision;
+	// 已注册的注册类
+	private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+	// Report线程
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * 返回{@link MultiRegistryReporter}的{@link Builder}实例
+	 *
+	 * @param opentsdb OpenTSDB客户端
+	 */
+	public static Builder forClient(OpenTsdbClient opentsdb) {
+		return new Builder(opentsdb);
+	}
+
+	private MultiRegistryReporter(Builder builder) {
+		this.opentsdb = builder.opentsdb;
+		this.clock = builder.clock;
+		this.rateUnit = builder.rateUnit;
+		this.durationUnit = builder.durationUnit;
+		this.histogramBuckets = builder.histogramBuckets;
+		this.timestampPrecision = builder.timestampPrecision;
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "opentsdb-multi-reporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * {@link MultiRegistryReporter}实例化的Builder类，默认值与{@link OpenTsdbReporter}相同
+	 */
+	public static class Builder {
+
+		private final OpenTsdbClient opentsdb;
+		private Clock clock = Clock.defaultClock();
+		private TimeUnit rateUnit = TimeUnit.SECONDS;
+		private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
+		private HistogramBuckets histogramBuckets;
+		private TimeUnit timestampPrecision = TimeUnit.SECONDS;
+		private int batchSize = OpenTsdbClient.DEFAULT_BATCH_SIZE_LIMIT;
+
+		private Builder(OpenTsdbClient opentsdb) {
+			this.opentsdb = opentsdb;
+		}
+
+		public Builder withClock(Clock clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		/**
+		 * 将比例转换成给定的时间单位
+		 */
+		public Builder convertRatesTo(TimeUnit rateUnit) {
+			this.rateUnit = rateUnit;
+			return this;
+		}
+
+		/**
+		 * 将时间长度转换成给定的时间单位
+		 */
+		public Builder convertDurationsTo(TimeUnit durationUnit) {
+			this.durationUnit = durationUnit;
+			return this;
+		}
+
+		/**
+		 * Timer和Histogram输出可合并的分桶计数，见{@link OpenTsdbReporter.Builder#withHistogramBuckets}
+		 */
+		public Builder withHistogramBuckets(HistogramBuckets histogramBuckets) {
+			this.histogramBuckets = histogramBuckets;
+			return this;
+		}
+
+		/**
+		 * 时间戳精度，秒或毫秒
+		 */
+		public Builder withTimestampPrecision(TimeUnit timestampPrecision) {
+			if (timestampPrecision != TimeUnit.SECONDS && timestampPrecision != TimeUnit.MILLISECONDS) {
+				throw new IllegalArgumentException("OpenTSDB timestamps are in seconds or milliseconds");
+			}
+			this.timestampPrecision = timestampPrecision;
+			return this;
+		}
+
+		/**
+		 * 制定批量发送的Metric数量，合并后的数据按该大小拆分请求
+		 */
+		public Builder withBatchSize(int batchSize) {
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		public MultiRegistryReporter build() {
+			opentsdb.setBatchSizeLimit(batchSize);
+			return new MultiRegistryReporter(this);
+		}
+
+	}
+
+	/**
+	 * 添加注册类，Report过程中可以随时添加
+	 *
+	 * @param registry 注册类
+	 * @param prefix 该注册类的前缀名
+	 * @param tags 该注册类的Tags
+	 */
+	public void addRegistry(MetricRegistry registry, String prefix, Map<String, String> tags) {
+		addRegistry(registry, prefix, tags, MetricFilter.ALL);
+	}
+
+	/**
+	 * 添加注册类，Report过程中可以随时添加
+	 *
+	 * @param registry 注册类
+	 * @param prefix 该注册类的前缀名
+	 * @param tags 该注册类的Tags
+	 * @param filter 该注册类的过滤器
+	 */
+	public void addRegistry(MetricRegistry registry, String prefix, Map<String, String> tags, MetricFilter filter) {
+		addRegistry(registry, prefix, tags, filter, null);
+	}
+
+	/**
+	 * 添加注册类，Report过程中可以随时添加
+	 *
+	 * @param registry 注册类
+	 * @param prefix 该注册类的前缀名
+	 * @param tags 该注册类的Tags
+	 * @param filter 该注册类的过滤器
+	 * @param rules 该注册类的Metric规则，为null时不处理
+	 */
+	public void addRegistry(MetricRegistry registry, String prefix, Map<String, String> tags, MetricFilter filter,
+			MetricRules rules) {
+		registrations.add(new Registration(registry, filter, new MetricConverter(prefix, tags, rateUnit,
+				durationUnit, histogramBuckets, rules)));
+	}
+
+	/**
+	 * 移除注册类
+	 */
+	public void removeRegistry(MetricRegistry registry) {
+		for (Registration registration : registrations) {
+			if (registration.registry == registry) {
+				registrations.remove(registration);
+			}
+		}
+	}
+
+	/**
+	 * 按周期Report
+	 */
+	public void start(long period, TimeUnit unit) {
+		executor.scheduleAtFixedRate(() -> {
+			try {
+				report();
+			} catch (RuntimeException e) {
+				logger.error("Report to OpenTSDB failed, Exception: {}.", LogbackUtil.expection2Str(e));
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * 停止Report
+	 */
+	public void stop() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() {
+		stop();
+	}
+
+	/**
+	 * Report一次，所有注册类的数据合并后发送
+	 */
+	public void report() {
+		final long timestamp = OpenTsdbMetric.toTimestamp(clock.getTime(), timestampPrecision);
+
+		final Set<OpenTsdbMetric> metrics = new HashSet<>();
+		final List<OpenTsdbHistogram> bucketed = new ArrayList<>();
+		for (Registration registration : registrations) {
+			final MetricRegistry registry = registration.registry;
+			final MetricFilter filter = registration.filter;
+			registration.converter.convert(registry.getGauges(filter), registry.getCounters(filter),
+					registry.getHistograms(filter), registry.getMeters(filter), registry.getTimers(filter),
+					timestamp, metrics, bucketed);
+		}
+
+		opentsdb.send(metrics);
+		if (!bucketed.isEmpty()) {
+			opentsdb.sendHistograms(bucketed);
+		}
+	}
+
+	/**
+	 * 注册类及其转换配置
+	 */
+	private static class Registration {
+
+		private final MetricRegistry registry;
+		private final MetricFilter filter;
+		private final MetricConverter converter;
+
+		private Registration(MetricRegistry registry, MetricFilter filter, MetricConverter converter) {
+			this.registry = registry;
+			this.filter = filter;
+			this.converter = converter;
+		}
+
+	}
+
+}
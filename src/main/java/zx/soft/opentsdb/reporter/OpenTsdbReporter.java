@@ -1,13 +1,16 @@
 package zx.soft.opentsdb.reporter;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.TimeUnit;
 
 import zx.soft.opentsdb.client.OpenTsdbClient;
+import zx.soft.opentsdb.metric.HistogramBuckets;
+import zx.soft.opentsdb.metric.OpenTsdbHistogram;
 import zx.soft.opentsdb.metric.OpenTsdbMetric;
 
 import com.codahale.metrics.Clock;
@@ -18,7 +21,6 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
-import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 
 /**
@@ -33,10 +35,10 @@ public class OpenTsdbReporter extends ScheduledReporter {
 	private final OpenTsdbClient opentsdb;
 	// 时钟对象
 	private final Clock clock;
-	// 所有的Metrix前缀名
-	private final String prefix;
-	// Tags列表
-	private final Map<String, String> tags;
+	// Metric转换
+	private final MetricConverter converter;
+	// 时间戳精度，秒或毫秒
+	private final TimeUnit timestampPrecision;
 
 	/**
 	 * 返回{@link OpenTsdbReporter}的{@link Builder}实例
@@ -49,12 +51,13 @@ public class OpenTsdbReporter extends ScheduledReporter {
 	}
 
 	private OpenTsdbReporter(MetricRegistry registry, OpenTsdbClient opentsdb, Clock clock, String prefix,
-			TimeUnit rateUnit, TimeUnit durationUnit, MetricFilter filter, Map<String, String> tags) {
+			TimeUnit rateUnit, TimeUnit durationUnit, MetricFilter filter, Map<String, String> tags,
+			HistogramBuckets histogramBuckets, TimeUnit timestampPrecision, MetricRules rules) {
 		super(registry, "opentsdb-reporter", filter, rateUnit, durationUnit);
 		this.opentsdb = opentsdb;
 		this.clock = clock;
-		this.prefix = prefix;
-		this.tags = tags;
+		this.converter = new MetricConverter(prefix, tags, rateUnit, durationUnit, histogramBuckets, rules);
+		this.timestampPrecision = timestampPrecision;
 	}
 
 	/**
@@ -81,6 +84,12 @@ public class OpenTsdbReporter extends ScheduledReporter {
 		private Map<String, String> tags;
 		// 批量大小
 		private int batchSize;
+		// 直方图分桶布局
+		private HistogramBuckets histogramBuckets;
+		// 时间戳精度
+		private TimeUnit timestampPrecision;
+		// Metric规则
+		private MetricRules rules;
 
 		private Builder(MetricRegistry registry) {
 			this.registry = registry;
@@ -90,6 +99,7 @@ public class OpenTsdbReporter extends ScheduledReporter {
 			this.durationUnit = TimeUnit.MILLISECONDS;
 			this.filter = MetricFilter.ALL;
 			this.batchSize = OpenTsdbClient.DEFAULT_BATCH_SIZE_LIMIT;
+			this.timestampPrecision = TimeUnit.SECONDS;
 		}
 
 		public Builder withClock(Clock clock) {
@@ -145,45 +155,40 @@ public class OpenTsdbReporter extends ScheduledReporter {
 			return this;
 		}
 
-		public OpenTsdbReporter build(OpenTsdbClient opentsdb) {
-			opentsdb.setBatchSizeLimit(batchSize);
-			return new OpenTsdbReporter(registry, opentsdb, clock, prefix, rateUnit, durationUnit, filter, tags);
-		}
-
-	}
-
-	/**
-	 * Metric集合
-	 */
-	private static class MetricsCollector {
-
-		// 前缀名
-		private final String prefix;
-		// Tags列表
-		private final Map<String, String> tags;
-		// 时间戳
-		private final long timestamp;
-		// Metric集合
-		private final Set<OpenTsdbMetric> metrics = new HashSet<>();
-
-		private MetricsCollector(String prefix, Map<String, String> tags, long timestamp) {
-			this.prefix = prefix;
-			this.tags = tags;
-			this.timestamp = timestamp;
+		/**
+		 * Timer和Histogram输出可合并的分桶计数，替代各实例的分位数
+		 * <p/>
+		 * 每个周期通过/api/histogram写入本周期新增的分桶计数（需要OpenTSDB 2.4），
+		 * 另外只输出count（Timer还有m1），不再输出max/min/mean/分位数等。
+		 */
+		public Builder withHistogramBuckets(HistogramBuckets histogramBuckets) {
+			this.histogramBuckets = histogramBuckets;
+			return this;
 		}
 
-		public static MetricsCollector createNew(String prefix, Map<String, String> tags, long timestamp) {
-			return new MetricsCollector(prefix, tags, timestamp);
+		/**
+		 * 时间戳精度，默认为秒；Report周期小于1秒时需要使用毫秒，否则同一秒内的数据会互相覆盖
+		 */
+		public Builder withTimestampPrecision(TimeUnit timestampPrecision) {
+			if (timestampPrecision != TimeUnit.SECONDS && timestampPrecision != TimeUnit.MILLISECONDS) {
+				throw new IllegalArgumentException("OpenTSDB timestamps are in seconds or milliseconds");
+			}
+			this.timestampPrecision = timestampPrecision;
+			return this;
 		}
 
-		public MetricsCollector addMetric(String metricName, Object value) {
-			this.metrics.add(OpenTsdbMetric.named(MetricRegistry.name(prefix, metricName)).withTimestamp(timestamp)
-					.withValue(value).withTags(tags).build());
+		/**
+		 * Metric规则，按名字过滤、重命名、增删Tags和选择子指标，与{@link #filter}同时生效
+		 */
+		public Builder withRules(MetricRules rules) {
+			this.rules = rules;
 			return this;
 		}
 
-		public Set<OpenTsdbMetric> build() {
-			return metrics;
+		public OpenTsdbReporter build(OpenTsdbClient opentsdb) {
+			opentsdb.setBatchSizeLimit(batchSize);
+			return new OpenTsdbReporter(registry, opentsdb, clock, prefix, rateUnit, durationUnit, filter, tags,
+					histogramBuckets, timestampPrecision, rules);
 		}
 
 	}
@@ -196,100 +201,16 @@ public class OpenTsdbReporter extends ScheduledReporter {
 	public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
 			SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
 
-		final long timestamp = clock.getTime() / 1000;
+		final long timestamp = OpenTsdbMetric.toTimestamp(clock.getTime(), timestampPrecision);
 
 		final Set<OpenTsdbMetric> metrics = new HashSet<>();
-
-		for (Map.Entry<String, Gauge> g : gauges.entrySet()) {
-			if (g.getValue().getValue() instanceof Collection && ((Collection) g.getValue().getValue()).isEmpty()) {
-				continue;
-			}
-			metrics.add(buildGauge(g.getKey(), g.getValue(), timestamp));
-		}
-
-		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-			metrics.add(buildCounter(entry.getKey(), entry.getValue(), timestamp));
-		}
-
-		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-			metrics.addAll(buildHistograms(entry.getKey(), entry.getValue(), timestamp));
-		}
-
-		for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-			metrics.addAll(buildMeters(entry.getKey(), entry.getValue(), timestamp));
-		}
-
-		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-			metrics.addAll(buildTimers(entry.getKey(), entry.getValue(), timestamp));
-		}
+		final List<OpenTsdbHistogram> bucketed = new ArrayList<>();
+		converter.convert(gauges, counters, histograms, meters, timers, timestamp, metrics, bucketed);
 
 		opentsdb.send(metrics);
-	}
-
-	private Set<OpenTsdbMetric> buildTimers(String name, Timer timer, long timestamp) {
-
-		final MetricsCollector collector = MetricsCollector.createNew(prefix(name), tags, timestamp);
-		final Snapshot snapshot = timer.getSnapshot();
-
-		return collector
-				.addMetric("count", timer.getCount())
-				// 转换比率
-				.addMetric("m15", convertRate(timer.getFifteenMinuteRate()))
-				.addMetric("m5", convertRate(timer.getFiveMinuteRate()))
-				.addMetric("m1", convertRate(timer.getOneMinuteRate()))
-				.addMetric("mean_rate", convertRate(timer.getMeanRate()))
-				// 转换时间长度
-				.addMetric("max", convertDuration(snapshot.getMax()))
-				.addMetric("min", convertDuration(snapshot.getMin()))
-				.addMetric("mean", convertDuration(snapshot.getMean()))
-				.addMetric("stddev", convertDuration(snapshot.getStdDev()))
-				.addMetric("median", convertDuration(snapshot.getMedian()))
-				.addMetric("p75", convertDuration(snapshot.get75thPercentile()))
-				.addMetric("p95", convertDuration(snapshot.get95thPercentile()))
-				.addMetric("p98", convertDuration(snapshot.get98thPercentile()))
-				.addMetric("p99", convertDuration(snapshot.get99thPercentile()))
-				.addMetric("p999", convertDuration(snapshot.get999thPercentile())).build();
-	}
-
-	private Set<OpenTsdbMetric> buildHistograms(String name, Histogram histogram, long timestamp) {
-
-		final MetricsCollector collector = MetricsCollector.createNew(prefix(name), tags, timestamp);
-		final Snapshot snapshot = histogram.getSnapshot();
-
-		return collector.addMetric("count", histogram.getCount()).addMetric("max", snapshot.getMax())
-				.addMetric("min", snapshot.getMin()).addMetric("mean", snapshot.getMean())
-				.addMetric("stddev", snapshot.getStdDev()).addMetric("median", snapshot.getMedian())
-				.addMetric("p75", snapshot.get75thPercentile()).addMetric("p95", snapshot.get95thPercentile())
-				.addMetric("p98", snapshot.get98thPercentile()).addMetric("p99", snapshot.get99thPercentile())
-				.addMetric("p999", snapshot.get999thPercentile()).build();
-	}
-
-	private Set<OpenTsdbMetric> buildMeters(String name, Meter meter, long timestamp) {
-
-		final MetricsCollector collector = MetricsCollector.createNew(prefix(name), tags, timestamp);
-
-		return collector
-				.addMetric("count", meter.getCount())
-				// convert rate
-				.addMetric("mean_rate", convertRate(meter.getMeanRate()))
-				.addMetric("m1", convertRate(meter.getOneMinuteRate()))
-				.addMetric("m5", convertRate(meter.getFiveMinuteRate()))
-				.addMetric("m15", convertRate(meter.getFifteenMinuteRate())).build();
-	}
-
-	private OpenTsdbMetric buildCounter(String name, Counter counter, long timestamp) {
-		return OpenTsdbMetric.named(prefix(name, "count")).withTimestamp(timestamp).withValue(counter.getCount())
-				.withTags(tags).build();
-	}
-
-	@SuppressWarnings("rawtypes")
-	private OpenTsdbMetric buildGauge(String name, Gauge gauge, long timestamp) {
-		return OpenTsdbMetric.named(prefix(name, "value")).withValue(gauge.getValue()).withTimestamp(timestamp)
-				.withTags(tags).build();
-	}
-
-	private String prefix(String... components) {
-		return MetricRegistry.name(prefix, components);
+		if (!bucketed.isEmpty()) {
+			opentsdb.sendHistograms(bucketed);
+		}
 	}
 
 }
@@ -0,0 +1,218 @@
+package zx.soft.opentsdb.reporter.jvm;
+
+import java.io.Closeable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * 基于GC事件通知的JVM指标，每次GC由JVM推送，不需要每个周期轮询MXBean
+ * <p/>
+ * 每次GC都会记录，短暂停也不会遗漏：
+ * <ul>
+ * <li>&lt;collector&gt;.pauses：每个收集器的暂停时长（Timer，毫秒级精度），ZGC/Shenandoah等并发收集器的Cycles为周期时长</li>
+ * <li>allocated：两次GC之间新生代的分配字节数</li>
+ * <li>promoted：Minor GC晋升到老年代的字节数</li>
+ * <li>live-data-size：最近一次Major GC后老年代的大小</li>
+ * <li>max-data-size：老年代的最大值</li>
+ * </ul>
+ * 分配和晋升按GC前后的内存池使用量计算，只在GC时更新，两次GC之间的分配在下次GC时计入。
+ * 使用后调用{@link #close()}注销监听。
+ *
+ * @author wanggang
+ *
+ */
+public class GcEventMetricSet implements MetricSet, Closeable {
+
+	private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
+
+	private final Map<String, Metric> metrics = new HashMap<>();
+
+	// 每个收集器的暂停时长
+	private final Map<String, Timer> pauses = new HashMap<>();
+
+	private final Counter allocated = new Counter();
+
+	private final Counter promoted = new Counter();
+
+	private final AtomicLong liveDataSize = new AtomicLong();
+
+	private final AtomicLong maxDataSize = new AtomicLong();
+
+	// 新生代（Eden）和老年代内存池的名字，为null时按整个堆计算
+	private final String youngPool;
+
+	private final String oldPool;
+
+	// 上次GC后新生代的使用量，只在通知线程中访问
+	private long lastYoungAfter;
+
+	private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+	private final NotificationListener listener = this::handleNotification;
+
+	public GcEventMetricSet() {
+		this(ManagementFactory.getGarbageCollectorMXBeans(), ManagementFactory.getMemoryPoolMXBeans());
+	}
+
+	GcEventMetricSet(List<GarbageCollectorMXBean> collectors, List<MemoryPoolMXBean> pools) {
+		String young = null;
+		String old = null;
+		for (MemoryPoolMXBean pool : pools) {
+			final String name = pool.getName();
+			if (isYoungPool(name)) {
+				young = name;
+			} else if (isOldPool(name)) {
+				old = name;
+				maxDataSize.set(Math.max(pool.getUsage().getMax(), 0));
+			}
+		}
+		this.youngPool = young;
+		this.oldPool = old;
+
+		for (GarbageCollectorMXBean collector : collectors) {
+			final Timer timer = new Timer(new ExponentiallyDecayingReservoir());
+			pauses.put(collector.getName(), timer);
+			metrics.put(WHITESPACE.matcher(collector.getName()).replaceAll("-") + ".pauses", timer);
+			if (collector instanceof NotificationEmitter) {
+				final NotificationEmitter emitter = (NotificationEmitter) collector;
+				emitter.addNotificationListener(listener, null, null);
+				emitters.add(emitter);
+			}
+		}
+		metrics.put("allocated", allocated);
+		metrics.put("promoted", promoted);
+		metrics.put("live-data-size", (Gauge<Long>) liveDataSize::get);
+		metrics.put("max-data-size", (Gauge<Long>) maxDataSize::get);
+	}
+
+	@Override
+	public Map<String, Metric> getMetrics() {
+		return Collections.unmodifiableMap(metrics);
+	}
+
+	/**
+	 * 注销GC通知监听
+	 */
+	@Override
+	public void close() {
+		for (NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(listener);
+			} catch (ListenerNotFoundException e) {
+				// 已经注销
+			}
+		}
+		emitters.clear();
+	}
+
+	private void handleNotification(Notification notification, Object handback) {
+		if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+			return;
+		}
+		final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+				.from((CompositeData) notification.getUserData());
+		record(info.getGcName(), info.getGcAction(), info.getGcInfo());
+	}
+
+	/**
+	 * 记录一次GC，通知由JVM的单个服务线程依次发送
+	 */
+	synchronized void record(String gcName, String gcAction, GcInfo gcInfo) {
+		final Timer timer = pauses.get(gcName);
+		if (timer != null) {
+			timer.update(gcInfo.getDuration(), TimeUnit.MILLISECONDS);
+		}
+
+		final Map<String, MemoryUsage> before = gcInfo.getMemoryUsageBeforeGc();
+		final Map<String, MemoryUsage> after = gcInfo.getMemoryUsageAfterGc();
+		if (youngPool != null) {
+			final long youngBefore = used(before, youngPool);
+			final long delta = youngBefore - lastYoungAfter;
+			if (delta > 0) {
+				allocated.inc(delta);
+			}
+			lastYoungAfter = used(after, youngPool);
+		} else {
+			// 没有分代的收集器按整个堆计算
+			final long heapBefore = heapUsed(before);
+			final long delta = heapBefore - lastYoungAfter;
+			if (delta > 0) {
+				allocated.inc(delta);
+			}
+			lastYoungAfter = heapUsed(after);
+		}
+
+		if (oldPool != null) {
+			final long oldBefore = used(before, oldPool);
+			final long oldAfter = used(after, oldPool);
+			if (isMajor(gcAction)) {
+				liveDataSize.set(oldAfter);
+			} else if (oldAfter > oldBefore) {
+				promoted.inc(oldAfter - oldBefore);
+			}
+			final MemoryUsage usage = after.get(oldPool);
+			if (usage != null && usage.getMax() > 0) {
+				maxDataSize.set(usage.getMax());
+			}
+		}
+	}
+
+	private static long used(Map<String, MemoryUsage> usages, String pool) {
+		final MemoryUsage usage = usages.get(pool);
+		return usage == null ? 0 : usage.getUsed();
+	}
+
+	private static long heapUsed(Map<String, MemoryUsage> usages) {
+		long used = 0;
+		for (Map.Entry<String, MemoryUsage> entry : usages.entrySet()) {
+			if (!isNonHeap(entry.getKey())) {
+				used += entry.getValue().getUsed();
+			}
+		}
+		return used;
+	}
+
+	private static boolean isMajor(String gcAction) {
+		return "end of major GC".equals(gcAction);
+	}
+
+	private static boolean isYoungPool(String name) {
+		return name.endsWith("Eden Space");
+	}
+
+	private static boolean isOldPool(String name) {
+		return name.endsWith("Old Gen") || name.endsWith("Tenured Gen");
+	}
+
+	private static boolean isNonHeap(String name) {
+		return name.contains("Metaspace") || name.contains("Code") || name.contains("Compressed Class")
+				|| name.contains("Perm Gen");
+	}
+
+}
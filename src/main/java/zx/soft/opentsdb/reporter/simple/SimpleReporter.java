@@ -9,10 +9,13 @@ import java.util.Date;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import zx.soft.opentsdb.client.CardinalityGuard;
+import zx.soft.opentsdb.client.RateLimiter;
 import zx.soft.opentsdb.metric.OpenTsdbMetric;
 import zx.soft.utils.log.LogbackUtil;
 
@@ -32,32 +35,76 @@ public class SimpleReporter {
 
 	private final int port;
 
+	// 基数保护，为null时不检查
+	private volatile CardinalityGuard cardinalityGuard;
+
+	// 发送限速，为null时不限制
+	private volatile RateLimiter rateLimiter;
+
 	public SimpleReporter(String tsdbHost, int tsdbPort) {
-		logger.info("TSDB host={}, port={}", tsdbHost, tsdbPort);
+		this(tsdbHost, tsdbPort, 2, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * 按指定周期Report，周期小于1秒时，Reportable需要使用毫秒精度的时间戳
+	 *
+	 * @param period Report周期
+	 * @param unit 周期单位
+	 */
+	public SimpleReporter(String tsdbHost, int tsdbPort, long period, TimeUnit unit) {
+		logger.info("TSDB host={}, port={}, period={} {}", tsdbHost, tsdbPort, period, unit);
 		this.host = tsdbHost;
 		this.port = tsdbPort;
 		Timer timer = new Timer("TsdbReporter", true);
+		long periodMs = Math.max(unit.toMillis(period), 1);
 		long now = System.currentTimeMillis();
-		long start = now - now % (1000 * 60 * 2) + 1000 * 60 * 2; // 下一个两分钟的整点时间
+		long start = now - now % periodMs + periodMs; // 下一个周期的整点时间
 		timer.scheduleAtFixedRate(new TimerTask() {
 			@Override
 			public void run() {
 				exec();
 			}
-		}, new Date(start), 1000 * 60 * 2);
+		}, new Date(start), periodMs);
 	}
 
 	public void addReport(Reportable report) {
 		reportables.add(report);
 	}
 
+	public void setCardinalityGuard(CardinalityGuard cardinalityGuard) {
+		this.cardinalityGuard = cardinalityGuard;
+	}
+
+	/**
+	 * 发送限速，每个Reportable的数据作为一批取令牌，令牌不足时按限速策略等待或丢弃该批数据
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
 	void exec() {
 		try (Socket socket = new Socket(host, port);
 				PrintWriter writer = new PrintWriter(new BufferedWriter(
 						new OutputStreamWriter(socket.getOutputStream())));) {
+			final CardinalityGuard guard = cardinalityGuard;
+			final RateLimiter limiter = rateLimiter;
+			final List<String> lines = new ArrayList<>();
 			for (Reportable report : reportables) {
+				lines.clear();
+				long bytes = 0;
 				for (OpenTsdbMetric tsdb : report.report()) {
-					writer.println(tsdb.serialize());
+					final OpenTsdbMetric checked = guard == null ? tsdb : guard.check(tsdb);
+					if (checked != null) {
+						final String line = checked.serialize();
+						lines.add(line);
+						bytes += line.length() + 1;
+					}
+				}
+				if (limiter != null && !lines.isEmpty() && !limiter.acquire(host + ":" + port, lines.size(), bytes)) {
+					continue;
+				}
+				for (String line : lines) {
+					writer.println(line);
 				}
 			}
 			writer.flush();
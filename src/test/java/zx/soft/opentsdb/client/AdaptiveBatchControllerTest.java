@@ -0,0 +1,104 @@
+package zx.soft.opentsdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+import zx.soft.opentsdb.stub.StubTsd;
+
+public class AdaptiveBatchControllerTest {
+
+	private final AdaptiveBatchController controller = AdaptiveBatchController
+			.forLatencyTarget(100, TimeUnit.MILLISECONDS).withBatchSize(10, 100).withBatchStep(10)
+			.withConcurrency(1, 4).build();
+
+	@Test
+	public void testAdditiveIncrease() throws InterruptedException {
+		for (int i = 0; i < 20; i++) {
+			final long ticket = controller.acquire();
+			controller.onSuccess(ticket, TimeUnit.MILLISECONDS.toNanos(10));
+			controller.release();
+		}
+		assertEquals(100, controller.getBatchSize());
+		assertEquals(4, controller.getConcurrency());
+	}
+
+	@Test
+	public void testMultiplicativeDecrease() throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			controller.onSuccess(controller.acquire(), TimeUnit.MILLISECONDS.toNanos(10));
+			controller.release();
+		}
+		assertEquals(100, controller.getBatchSize());
+		assertEquals(4, controller.getConcurrency());
+
+		// 同一周期内的多个失败只回退一次
+		final long first = controller.acquire();
+		final long second = controller.acquire();
+		controller.onFailure(first, new OpenTsdbException(503, null));
+		controller.onFailure(second, new SocketTimeoutException());
+		assertEquals(50, controller.getBatchSize());
+		assertEquals(2, controller.getConcurrency());
+
+		// 新周期的超时继续回退
+		controller.release();
+		controller.release();
+		controller.onFailure(controller.acquire(), new SocketTimeoutException());
+		assertEquals(25, controller.getBatchSize());
+		assertEquals(1, controller.getConcurrency());
+		controller.release();
+	}
+
+	@Test
+	public void testSlowResponses() throws InterruptedException {
+		for (int i = 0; i < 5; i++) {
+			controller.onSuccess(controller.acquire(), TimeUnit.MILLISECONDS.toNanos(10));
+			controller.release();
+		}
+		assertEquals(60, controller.getBatchSize());
+		controller.onSuccess(controller.acquire(), TimeUnit.MILLISECONDS.toNanos(500));
+		controller.release();
+		assertEquals(30, controller.getBatchSize());
+	}
+
+	@Test
+	public void testOverloadClassification() {
+		assertTrue(AdaptiveBatchController.isOverload(new OpenTsdbException(500, null)));
+		assertTrue(AdaptiveBatchController.isOverload(new OpenTsdbException(429, null)));
+		assertTrue(AdaptiveBatchController.isOverload(new IOException("Connection reset")));
+		assertTrue(AdaptiveBatchController.isOverload(new RuntimeException(new SocketTimeoutException())));
+		assertFalse(AdaptiveBatchController.isOverload(new OpenTsdbException(400, null)));
+		assertFalse(AdaptiveBatchController.isOverload(new IllegalStateException()));
+	}
+
+	@Test
+	public void testSendAdaptive() throws IOException {
+		try (StubTsd tsd = StubTsd.start(4);
+				OpenTsdbClient client = OpenTsdbClient.forService(tsd.getHttpUrl())
+						.withTransport(OpenTsdbClient.TransportType.JDK).withAdaptiveBatching(controller).create()) {
+			final Set<OpenTsdbMetric> metrics = new HashSet<>();
+			for (int i = 0; i < 1000; i++) {
+				metrics.add(new OpenTsdbMetric("foo" + i, i, "host", "a"));
+			}
+			client.send(metrics);
+			assertEquals(1000, tsd.getPoints());
+			assertTrue(controller.getBatchSize() > 10);
+
+			tsd.setErrorRate(1);
+			final int before = controller.getBatchSize();
+			client.send(metrics);
+			assertTrue(controller.getBatchSize() < before);
+			assertEquals(1000, tsd.getPoints());
+		}
+	}
+
+}
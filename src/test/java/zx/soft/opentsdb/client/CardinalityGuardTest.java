@@ -0,0 +1,107 @@
+package zx.soft.opentsdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+public class CardinalityGuardTest {
+
+	@Test
+	public void testDropNewSeriesOverLimit() {
+		final CardinalityGuard guard = CardinalityGuard.withPolicy(CardinalityGuard.Policy.DROP)
+				.withMaxSeriesPerMetric(3).withMaxValuesPerTag(0).build();
+		for (int i = 0; i < 3; i++) {
+			final OpenTsdbMetric metric = new OpenTsdbMetric("requests", 1, "user", "u" + i);
+			assertSame(metric, guard.check(metric));
+		}
+		assertNull(guard.check(new OpenTsdbMetric("requests", 1, "user", "u3")));
+		// 已经出现过的时间序列继续放行
+		final OpenTsdbMetric known = new OpenTsdbMetric("requests", 2, "user", "u1");
+		assertSame(known, guard.check(known));
+		// 其它Metric不受影响
+		final OpenTsdbMetric other = new OpenTsdbMetric("errors", 1, "user", "u3");
+		assertSame(other, guard.check(other));
+
+		assertEquals(3, guard.getSeriesCount("requests"));
+		assertEquals((Long) 1L, guard.getDropped().get("requests"));
+	}
+
+	@Test
+	public void testCollapseTagValues() {
+		final CardinalityGuard guard = CardinalityGuard.withPolicy(CardinalityGuard.Policy.COLLAPSE)
+				.withMaxValuesPerTag(2).build();
+		guard.check(new OpenTsdbMetric("latency", 1, "host", "a", "url", "/a"));
+		guard.check(new OpenTsdbMetric("latency", 1, "host", "a", "url", "/b"));
+		final OpenTsdbMetric collapsed = guard.check(new OpenTsdbMetric("latency", 1, "host", "a", "url", "/c"));
+
+		final Map<String, String> expected = new HashMap<>();
+		expected.put("host", "a");
+		expected.put("url", CardinalityGuard.COLLAPSED_VALUE);
+		assertEquals(expected, collapsed.getTags());
+		assertEquals(1, collapsed.getValue());
+		assertEquals((Long) 1L, guard.getCollapsed().get("latency"));
+	}
+
+	@Test
+	public void testDroppedPointsDoNotAdmitValues() {
+		final CardinalityGuard guard = CardinalityGuard.withPolicy(CardinalityGuard.Policy.DROP)
+				.withMaxValuesPerTag(2).build();
+		assertNotNull(guard.check(new OpenTsdbMetric("latency", 1, "host", "a", "url", "/a")));
+		assertNotNull(guard.check(new OpenTsdbMetric("latency", 1, "host", "a", "url", "/b")));
+		// url超限，丢弃的数据点不应占用host的名额
+		assertNull(guard.check(new OpenTsdbMetric("latency", 1, "host", "b", "url", "/c")));
+		assertNotNull(guard.check(new OpenTsdbMetric("latency", 1, "host", "c", "url", "/a")));
+		assertNull(guard.check(new OpenTsdbMetric("latency", 1, "host", "d", "url", "/a")));
+	}
+
+	@Test
+	public void testMetricLimit() {
+		final CardinalityGuard guard = CardinalityGuard.withPolicy(CardinalityGuard.Policy.DROP)
+				.withMetricLimit("small", 1).build();
+		guard.check(new OpenTsdbMetric("small", 1, "host", "a"));
+		assertNull(guard.check(new OpenTsdbMetric("small", 1, "host", "b")));
+	}
+
+	@Test
+	public void testLongHashSet() {
+		final LongHashSet set = new LongHashSet(4);
+		for (long i = -1000; i < 1000; i++) {
+			set.add(i * 7919);
+		}
+		assertEquals(2000, set.size());
+		for (long i = -1000; i < 1000; i++) {
+			assertEquals(true, set.contains(i * 7919));
+			assertEquals(false, set.add(i * 7919));
+		}
+		assertEquals(false, set.contains(1));
+	}
+
+	@Test
+	public void testMaxMetrics() {
+		final CardinalityGuard drop = CardinalityGuard.withPolicy(CardinalityGuard.Policy.DROP).withMaxMetrics(2)
+				.build();
+		assertNotNull(drop.check(new OpenTsdbMetric("a", 1, "host", "x")));
+		assertNotNull(drop.check(new OpenTsdbMetric("b", 1, "host", "x")));
+		assertNull(drop.check(new OpenTsdbMetric("c", 1, "host", "x")));
+		// 已跟踪的Metric继续放行
+		assertNotNull(drop.check(new OpenTsdbMetric("a", 1, "host", "y")));
+		assertEquals(1, drop.getDroppedOverMetricLimit());
+
+		final CardinalityGuard collapse = CardinalityGuard.withPolicy(CardinalityGuard.Policy.COLLAPSE)
+				.withMaxMetrics(1).build();
+		collapse.check(new OpenTsdbMetric("a", 1, "host", "x"));
+		assertEquals(CardinalityGuard.COLLAPSED_VALUE, collapse.check(new OpenTsdbMetric("b", 1, "host", "x"))
+				.getMetric());
+		assertEquals(1, collapse.getSeriesCount(CardinalityGuard.COLLAPSED_VALUE));
+		assertEquals(0, collapse.getSeriesCount("b"));
+	}
+
+}
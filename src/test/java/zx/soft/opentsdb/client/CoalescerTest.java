@@ -0,0 +1,73 @@
+package zx.soft.opentsdb.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+public class CoalescerTest {
+
+	private static OpenTsdbMetric point(String metric, long timestamp, Object value, String... tags) {
+		final Map<String, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < tags.length; i += 2) {
+			map.put(tags[i], tags[i + 1]);
+		}
+		return OpenTsdbMetric.named(metric).withTimestamp(timestamp).withValue(value).withTags(map).build();
+	}
+
+	@Test
+	public void testLastWriteWins() {
+		final List<OpenTsdbMetric> result = Coalescer.coalesce(Arrays.asList(point("a", 1, 1L, "host", "x"),
+				point("b", 1, 2L, "host", "x"), point("a", 1, 3L, "host", "x"), point("a", 2, 4L, "host", "x"),
+				point("a", 1, 5L, "host", "y")), Coalescer.Mode.LAST);
+		assertEquals(4, result.size());
+		// 保持首次出现的顺序
+		assertEquals("a", result.get(0).getMetric());
+		assertEquals(3L, result.get(0).getValue());
+		assertEquals(2L, result.get(1).getValue());
+		assertEquals(4L, result.get(2).getValue());
+		assertEquals(5L, result.get(3).getValue());
+	}
+
+	@Test
+	public void testTagOrderIsSameSeries() {
+		final List<OpenTsdbMetric> result = Coalescer.coalesce(Arrays.asList(point("a", 1, 1L, "h", "x", "d", "y"),
+				point("a", 1, 2L, "d", "y", "h", "x")), Coalescer.Mode.LAST);
+		assertEquals(1, result.size());
+		assertEquals(2L, result.get(0).getValue());
+	}
+
+	@Test
+	public void testAggregate() {
+		final List<OpenTsdbMetric> points = Arrays.asList(point("a", 1, 3L, "h", "x"), point("a", 1, 7, "h", "x"),
+				point("a", 1, 5L, "h", "x"), point("b", 1, 1.5, "h", "x"), point("b", 1, 2L, "h", "x"));
+		assertEquals(15L, Coalescer.coalesce(points, Coalescer.Mode.SUM).get(0).getValue());
+		assertEquals(3.5, Coalescer.coalesce(points, Coalescer.Mode.SUM).get(1).getValue());
+		assertEquals(7L, Coalescer.coalesce(points, Coalescer.Mode.MAX).get(0).getValue());
+		assertEquals(3L, Coalescer.coalesce(points, Coalescer.Mode.MIN).get(0).getValue());
+		assertEquals(1.5, Coalescer.coalesce(points, Coalescer.Mode.MIN).get(1).getValue());
+	}
+
+	@Test
+	public void testManyPoints() {
+		final List<OpenTsdbMetric> points = new ArrayList<>();
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 10_000; i++) {
+				points.add(point("m" + (i % 100), i / 100, (long) round, "i", Integer.toString(i % 7)));
+			}
+		}
+		final List<OpenTsdbMetric> result = Coalescer.coalesce(points, Coalescer.Mode.SUM);
+		assertEquals(10_000, result.size());
+		for (OpenTsdbMetric metric : result) {
+			assertEquals(3L, metric.getValue());
+		}
+	}
+
+}
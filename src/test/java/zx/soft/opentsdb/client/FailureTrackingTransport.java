@@ -0,0 +1,85 @@
+package zx.soft.opentsdb.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 压测用的传输层包装，记录当前线程的请求是否失败
+ * <p/>
+ * OpenTsdbClient.send只记录发送异常，不抛给调用方；压测工具在每次发送前调用{@link #begin()}，
+ * 发送后通过{@link #failed()}区分失败的批次，失败的批次不计入发送量和延迟。
+ *
+ * @author wanggang
+ *
+ */
+public class FailureTrackingTransport implements OpenTsdbTransport {
+
+	private final OpenTsdbTransport transport;
+
+	private final ThreadLocal<boolean[]> failed = ThreadLocal.withInitial(() -> new boolean[1]);
+
+	private volatile Exception lastError;
+
+	private FailureTrackingTransport(OpenTsdbTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * 按Builder中的传输层配置创建
+	 */
+	public static FailureTrackingTransport forBuilder(OpenTsdbClient.Builder builder) {
+		return new FailureTrackingTransport(builder.createTransport());
+	}
+
+	/**
+	 * 开始一次发送，清除当前线程的失败标记
+	 */
+	public void begin() {
+		failed.get()[0] = false;
+	}
+
+	/**
+	 * 当前线程从上次{@link #begin()}以来是否有请求失败
+	 */
+	public boolean failed() {
+		return failed.get()[0];
+	}
+
+	/**
+	 * 最近一次失败的异常，没有失败时为null
+	 */
+	public Exception getLastError() {
+		return lastError;
+	}
+
+	@Override
+	public void post(String path, byte[] body) throws IOException {
+		try {
+			transport.post(path, body);
+		} catch (IOException | RuntimeException e) {
+			fail(e);
+			throw e;
+		}
+	}
+
+	@Override
+	public InputStream stream(String path, byte[] body) throws IOException {
+		try {
+			return transport.stream(path, body);
+		} catch (IOException | RuntimeException e) {
+			fail(e);
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() {
+		transport.close();
+	}
+
+	private void fail(Exception e) {
+		failed.get()[0] = true;
+		lastError = e;
+	}
+
+}
@@ -0,0 +1,94 @@
+package zx.soft.opentsdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class JdkHttpTransportTest {
+
+	private HttpServer server;
+
+	private final List<String> bodies = new CopyOnWriteArrayList<>();
+
+	private volatile int status = 204;
+
+	private String baseUrl;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/api/put", exchange -> {
+			bodies.add(read(exchange.getRequestBody()));
+			if (status == 204) {
+				exchange.sendResponseHeaders(204, -1);
+			} else {
+				final byte[] error = "{\"error\":{\"code\":400}}".getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(status, error.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(error);
+				}
+			}
+			exchange.close();
+		});
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testSend() {
+		try (OpenTsdbClient client = OpenTsdbClient.forService(baseUrl)
+				.withTransport(OpenTsdbClient.TransportType.JDK).create()) {
+			client.send(OpenTsdbMetric.named("foo").withTimestamp(1L).withValue(2L)
+					.withTags(Collections.singletonMap("host", "a")).build());
+		}
+		assertEquals(1, bodies.size());
+		assertEquals("[{\"metric\":\"foo\",\"timestamp\":1,\"value\":2,\"tags\":{\"host\":\"a\"}}]", bodies.get(0));
+	}
+
+	@Test
+	public void testErrorStatus() throws IOException {
+		status = 400;
+		final JdkHttpTransport transport = new JdkHttpTransport(baseUrl, 1000, 1000);
+		try {
+			transport.post("/api/put", "[]".getBytes(StandardCharsets.UTF_8));
+			fail("expected OpenTsdbException");
+		} catch (OpenTsdbException e) {
+			assertEquals(400, e.getStatusCode());
+			assertTrue(e.getMessage().contains("error"));
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1024];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
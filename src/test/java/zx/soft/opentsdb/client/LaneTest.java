@@ -0,0 +1,134 @@
+package zx.soft.opentsdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+public class LaneTest {
+
+	@Test
+	public void testMatches() {
+		final Lane lane = Lane.named("slo").matching("slo.*", "*.errors", "http.*.p99", "exact").build();
+		assertTrue(lane.matches("slo.availability"));
+		assertTrue(lane.matches("http.errors"));
+		assertTrue(lane.matches("http.get.p99"));
+		assertTrue(lane.matches("exact"));
+		assertFalse(lane.matches("exactly"));
+		assertFalse(lane.matches("http.p99"));
+		assertFalse(lane.matches("debug.slo"));
+	}
+
+	@Test
+	public void testWeightedScheduling() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final ShardedDispatcher dispatcher = new ShardedDispatcher(1, Arrays.asList(
+				Lane.named("critical").withWeight(3).matching("critical.*").build(),
+				Lane.named(Lane.DEFAULT).withWeight(1).build()), () -> 1, batch -> {
+			if (started.getCount() > 0) {
+				started.countDown();
+				await(release);
+				return;
+			}
+			order.add(batch.get(0).getMetric());
+		});
+		dispatcher.dispatch(Collections.singletonList(metric("warmup", 0)));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		final List<OpenTsdbMetric> metrics = new ArrayList<>();
+		for (int i = 1; i <= 20; i++) {
+			metrics.add(metric("debug." + i, i));
+			metrics.add(metric("critical." + i, i));
+		}
+		dispatcher.dispatch(metrics);
+		release.countDown();
+		assertTrue(dispatcher.flush(5, TimeUnit.SECONDS));
+		dispatcher.close(1, TimeUnit.SECONDS);
+
+		assertEquals(40, order.size());
+		int critical = 0;
+		for (String name : order.subList(0, 20)) {
+			if (name.startsWith("critical.")) {
+				critical++;
+			}
+		}
+		assertEquals(15, critical);
+	}
+
+	@Test
+	public void testDropPolicies() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+		final ShardedDispatcher dispatcher = new ShardedDispatcher(1, Arrays.asList(
+				Lane.named("newest").withQueueCapacity(2).withDropPolicy(Lane.DropPolicy.DROP_NEWEST)
+						.build(),
+				Lane.named("oldest").withQueueCapacity(2).withDropPolicy(Lane.DropPolicy.DROP_OLDEST)
+						.build(), Lane.named(Lane.DEFAULT).build()), () -> 10, batch -> {
+			if (started.getCount() > 0) {
+				started.countDown();
+				await(release);
+				return;
+			}
+			for (OpenTsdbMetric metric : batch) {
+				sent.add(metric.getMetric() + metric.getTimestamp());
+			}
+		});
+		dispatcher.dispatch(Collections.singletonList(metric("warmup", 0)));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		final List<OpenTsdbMetric> metrics = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			metrics.add(metric("a", i));
+		}
+		dispatcher.dispatch(metrics, "newest");
+		dispatcher.dispatch(metrics, "oldest");
+		assertEquals(3, dispatcher.getDropped("newest"));
+		assertEquals(3, dispatcher.getDropped("oldest"));
+		assertEquals(0, dispatcher.getDropped(Lane.DEFAULT));
+
+		release.countDown();
+		assertTrue(dispatcher.flush(5, TimeUnit.SECONDS));
+		dispatcher.close(1, TimeUnit.SECONDS);
+		assertEquals(4, sent.size());
+		assertTrue(sent.containsAll(Arrays.asList("a1", "a2", "a4", "a5")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownLane() {
+		final ShardedDispatcher dispatcher = new ShardedDispatcher(1, 10, () -> 10, batch -> {
+		});
+		try {
+			dispatcher.dispatch(Collections.singletonList(metric("a", 1)), "missing");
+		} finally {
+			dispatcher.close(1, TimeUnit.SECONDS);
+		}
+	}
+
+	private static OpenTsdbMetric metric(String name, long timestamp) {
+		return OpenTsdbMetric.named(name).withTimestamp(timestamp).withValue(1)
+				.withTags(new HashMap<String, String>()).build();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package zx.soft.opentsdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+public class MetricSanitizerTest {
+
+	private static OpenTsdbMetric point(String metric, Object value, String... tags) {
+		final Map<String, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < tags.length; i += 2) {
+			map.put(tags[i], tags[i + 1]);
+		}
+		return OpenTsdbMetric.named(metric).withTimestamp(1L).withValue(value).withTags(map).build();
+	}
+
+	@Test
+	public void testIsValid() {
+		assertTrue(MetricSanitizer.isValid("sys.cpu-user_0/total"));
+		assertTrue(MetricSanitizer.isValid("主机"));
+		assertFalse(MetricSanitizer.isValid("http requests"));
+		assertFalse(MetricSanitizer.isValid("a=b"));
+		assertFalse(MetricSanitizer.isValid(""));
+		assertFalse(MetricSanitizer.isValid(null));
+	}
+
+	@Test
+	public void testValidPointsAreUntouched() {
+		final MetricSanitizer sanitizer = MetricSanitizer.withPolicy(MetricSanitizer.Policy.REPLACE).build();
+		final OpenTsdbMetric metric = point("sys.cpu", 1L, "host", "web01");
+		assertSame(metric, sanitizer.check(metric));
+		final Collection<OpenTsdbMetric> metrics = Arrays.asList(metric, point("sys.mem", 2.5, "host", "web01"));
+		assertSame(metrics, sanitizer.filter(metrics));
+		assertEquals(0, sanitizer.getReplaced());
+	}
+
+	@Test
+	public void testReplace() {
+		final MetricSanitizer sanitizer = MetricSanitizer.withPolicy(MetricSanitizer.Policy.REPLACE).build();
+		final OpenTsdbMetric metric = sanitizer.check(point("http requests", 1L, "host", "web 01", "a:b", "c"));
+		assertEquals("http_requests", metric.getMetric());
+		assertEquals("web_01", metric.getTags().get("host"));
+		assertEquals("c", metric.getTags().get("a_b"));
+		assertEquals(1L, metric.getValue());
+		assertEquals(1, sanitizer.getReplaced());
+	}
+
+	@Test
+	public void testDrop() {
+		final MetricSanitizer sanitizer = MetricSanitizer.withPolicy(MetricSanitizer.Policy.DROP).build();
+		assertNull(sanitizer.check(point("http requests", 1L, "host", "a")));
+		assertNull(sanitizer.check(point("http", 1L, "host", "")));
+		assertEquals(2, sanitizer.getDropped());
+	}
+
+	@Test
+	public void testNonFiniteValuesAreDropped() {
+		final MetricSanitizer sanitizer = MetricSanitizer.withPolicy(MetricSanitizer.Policy.REPLACE).build();
+		final List<OpenTsdbMetric> metrics = new ArrayList<>();
+		metrics.add(point("a", 1L, "host", "x"));
+		metrics.add(point("b", Double.NaN, "host", "x"));
+		metrics.add(point("c", Double.POSITIVE_INFINITY, "host", "x"));
+		metrics.add(point("d e", 2L, "host", "x"));
+		final List<OpenTsdbMetric> result = new ArrayList<>(sanitizer.filter(metrics));
+		assertEquals(2, result.size());
+		assertSame(metrics.get(0), result.get(0));
+		assertEquals("d_e", result.get(1).getMetric());
+		assertEquals(2, sanitizer.getDropped());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidReplacement() {
+		MetricSanitizer.withPolicy(MetricSanitizer.Policy.REPLACE).withReplacement(' ');
+	}
+
+	@Test
+	public void testEqualStringsFromDifferentInstancesAreUntouched() {
+		final MetricSanitizer sanitizer = MetricSanitizer.withPolicy(MetricSanitizer.Policy.REPLACE).build();
+		for (int i = 0; i < 3; i++) {
+			// 每个周期新拼出的字符串内容相同但不是同一个实例
+			final OpenTsdbMetric metric = point(new String("sys.cpu"), 1L, new String("host"),
+					new String("web01"));
+			assertSame(metric, sanitizer.check(metric));
+		}
+		assertEquals(0, sanitizer.getReplaced());
+	}
+
+}
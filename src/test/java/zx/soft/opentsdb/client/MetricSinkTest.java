@@ -0,0 +1,148 @@
+package zx.soft.opentsdb.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+import zx.soft.opentsdb.stub.StubTsd;
+
+public class MetricSinkTest {
+
+	private Path folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("opentsdb-sink");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(folder)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private static List<OpenTsdbMetric> points(int count) {
+		final List<OpenTsdbMetric> metrics = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			metrics.add(new OpenTsdbMetric("foo" + i, i, "host", "a"));
+		}
+		return metrics;
+	}
+
+	@Test
+	public void testEncodesOnce() {
+		final EncodedBatch batch = EncodedBatch.of(points(2));
+		assertSame(batch.lines(), batch.lines());
+		final String lines = new String(batch.lines(), StandardCharsets.UTF_8);
+		assertTrue(lines.startsWith("put foo0 "));
+		assertEquals(2, lines.split("\n").length);
+		assertArrayEquals(OpenTsdbMetric.serializeJson(points(2)), batch.json());
+	}
+
+	@Test
+	public void testFanOut() throws IOException, InterruptedException {
+		final Path file = folder.resolve("replay/points.json");
+		try (StubTsd tsd = StubTsd.start(2)) {
+			try (OpenTsdbClient client = OpenTsdbClient.forService(tsd.getHttpUrl())
+					.withTransport(OpenTsdbClient.TransportType.JDK)
+					.withSink(TelnetSink.forAddress(tsd.getTelnetHost(), tsd.getTelnetPort()))
+					.withSink(FileSink.forPath(file).build()).create()) {
+				client.setBatchSizeLimit(40);
+				client.send(points(100));
+			}
+			// 关闭客户端时等待输出目标写完，telnet接口没有响应，等待TSD处理完
+			final long deadline = System.currentTimeMillis() + 5000;
+			while (tsd.getPoints() < 200 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(200, tsd.getPoints());
+		}
+		final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertEquals(3, lines.size());
+		assertTrue(lines.get(0).startsWith("[{\"metric\":\"foo0\""));
+	}
+
+	@Test
+	public void testSlowSinkDoesNotBlock() throws IOException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final MetricSink slow = new MetricSink() {
+
+			@Override
+			public void write(EncodedBatch batch) {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void close() {
+			}
+
+		};
+		try (StubTsd tsd = StubTsd.start(2);
+				OpenTsdbClient client = OpenTsdbClient.forService(tsd.getHttpUrl())
+						.withTransport(OpenTsdbClient.TransportType.JDK).withSinkQueueCapacity(2).withSink(slow)
+						.create()) {
+			client.setBatchSizeLimit(10);
+			client.send(points(100));
+			assertEquals(100, tsd.getPoints());
+			// 一批在写入中，两批在队列中，其余丢弃
+			assertTrue(client.getDroppedBatches(slow) >= 7);
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void testFileRotation() throws IOException {
+		final Path file = folder.resolve("points.json");
+		final FileSink sink = FileSink.forPath(file).withMaxFileSize(10).withMaxHistory(2).build();
+		try {
+			for (int i = 0; i < 5; i++) {
+				sink.write(EncodedBatch.of(points(1)));
+			}
+		} finally {
+			sink.close();
+		}
+		assertTrue(Files.exists(file));
+		assertTrue(Files.exists(file.resolveSibling("points.json.1")));
+		assertTrue(Files.exists(file.resolveSibling("points.json.2")));
+		assertEquals(3, folder.toFile().list().length);
+		assertEquals(1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+	}
+
+	@Test
+	public void testStartsNewLineAfterPartialWrite() throws IOException {
+		final Path file = folder.resolve("points.json");
+		Files.write(file, "[{\"metric\":".getBytes(StandardCharsets.UTF_8));
+		final FileSink sink = FileSink.forPath(file).build();
+		try {
+			sink.write(EncodedBatch.of(points(1)));
+		} finally {
+			sink.close();
+		}
+		final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertEquals(2, lines.size());
+		assertEquals(new String(EncodedBatch.of(points(1)).json(), StandardCharsets.UTF_8), lines.get(1));
+	}
+
+}
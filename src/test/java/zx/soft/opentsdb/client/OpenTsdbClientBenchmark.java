@@ -0,0 +1,108 @@
+package zx.soft.opentsdb.client;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * OpenTsdbClient发送性能测试，对比默认连接器和连接池的每秒请求数
+ * <p/>
+ * 在本地启动一个只返回204的TSD桩服务，直接运行main方法即可，不在单元测试中执行。
+ * 失败的请求单独统计，不计入每秒请求数。
+ *
+ * @author wanggang
+ *
+ */
+public class OpenTsdbClientBenchmark {
+
+	private static final int THREADS = 8;
+
+	private static final int REQUESTS_PER_THREAD = 2000;
+
+	private static final int METRICS_PER_REQUEST = 10;
+
+	public static void main(String[] args) throws Exception {
+		final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+		server.createContext("/api/put", exchange -> {
+			try (InputStream in = exchange.getRequestBody()) {
+				final byte[] buffer = new byte[8192];
+				while (in.read(buffer) != -1) {
+					// 读完请求体，连接才能复用
+				}
+			}
+			exchange.sendResponseHeaders(204, -1);
+			exchange.close();
+		});
+		server.setExecutor(Executors.newFixedThreadPool(THREADS));
+		server.start();
+		final String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		try {
+			run("default", FailureTrackingTransport.forBuilder(OpenTsdbClient.forService(baseUrl)));
+			run("pooled", FailureTrackingTransport.forBuilder(OpenTsdbClient.forService(baseUrl)
+					.withPooledConnections().withMaxConnections(THREADS).withMaxConnectionsPerRoute(THREADS)));
+		} finally {
+			server.stop(0);
+			((ExecutorService) server.getExecutor()).shutdownNow();
+		}
+	}
+
+	private static void run(String name, final FailureTrackingTransport transport) throws Exception {
+		try (OpenTsdbClient client = OpenTsdbClient.create(transport)) {
+			run(name, transport, client);
+		}
+	}
+
+	private static void run(String name, final FailureTrackingTransport transport, final OpenTsdbClient client)
+			throws Exception {
+		final Set<OpenTsdbMetric> metrics = new HashSet<>();
+		for (int i = 0; i < METRICS_PER_REQUEST; i++) {
+			metrics.add(new OpenTsdbMetric("benchmark.metric" + i, i, "host", "localhost"));
+		}
+		// 预热
+		for (int i = 0; i < 200; i++) {
+			client.send(metrics);
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final List<Future<Integer>> futures = new ArrayList<>();
+		final long start = System.nanoTime();
+		for (int t = 0; t < THREADS; t++) {
+			futures.add(executor.submit(() -> {
+				// 客户端只记录发送异常，失败的请求由传输层包装识别
+				int failed = 0;
+				for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+					transport.begin();
+					client.send(metrics);
+					if (transport.failed()) {
+						failed++;
+					}
+				}
+				return failed;
+			}));
+		}
+		int failed = 0;
+		for (Future<Integer> future : futures) {
+			failed += future.get();
+		}
+		final long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+
+		final double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+		final int succeeded = THREADS * REQUESTS_PER_THREAD - failed;
+		System.out.printf("%-8s %,d requests in %.2fs: %,.0f requests/sec, %,d failed%n", name, succeeded, seconds,
+				succeeded / seconds, failed);
+	}
+
+}
@@ -37,7 +37,7 @@ public class OpenTsdbTest {
 
 	@Before
 	public void setUp() {
-		openTsdb = OpenTsdbClient.create(apiResource);
+		openTsdb = JerseyTransport.createClient(apiResource);
 		openTsdb.setBatchSizeLimit(10);
 	}
 
@@ -73,4 +73,13 @@ public class OpenTsdbTest {
 		assertNotNull(OpenTsdbClient.forService("foo").withReadTimeout(1).withConnectTimeout(1).create());
 	}
 
+	@Test
+	public void testPooledBuilder() {
+		try (OpenTsdbClient client = OpenTsdbClient.forService("http://localhost:4242").withPooledConnections()
+				.withMaxConnections(4).withMaxConnectionsPerRoute(2).withIdleConnectionTimeout(1000)
+				.withKeepAlive(60_000).withTcpNoDelay(true).create()) {
+			assertNotNull(client);
+		}
+	}
+
 }
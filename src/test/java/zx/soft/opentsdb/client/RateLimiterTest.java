@@ -0,0 +1,104 @@
+package zx.soft.opentsdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+	@Test
+	public void testTokenBucket() {
+		final TokenBucket bucket = new TokenBucket(10, 10, now::get);
+		assertEquals(10, bucket.available(), 1e-9);
+		assertTrue(bucket.tryAcquire(10));
+		assertFalse(bucket.tryAcquire(1));
+
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+		assertEquals(5, bucket.available(), 1e-6);
+		assertTrue(bucket.tryAcquire(5));
+		assertFalse(bucket.tryAcquire(1));
+
+		// 长时间空闲后最多积累到容量
+		now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+		assertEquals(10, bucket.available(), 1e-9);
+		// 桶满时允许一次超过容量
+		assertTrue(bucket.tryAcquire(25));
+		assertEquals(-15, bucket.available(), 1e-6);
+	}
+
+	@Test
+	public void testReserve() {
+		final TokenBucket bucket = new TokenBucket(100, 100, now::get);
+		assertEquals(0, bucket.reserve(100, TimeUnit.SECONDS.toNanos(1)));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve(50, TimeUnit.SECONDS.toNanos(1)));
+		assertEquals(-1, bucket.reserve(100, TimeUnit.SECONDS.toNanos(1)));
+		bucket.refund(50);
+		assertEquals(0, bucket.available(), 1e-6);
+	}
+
+	@Test
+	public void testShedGlobalAndEndpoint() {
+		final RateLimiter limiter = RateLimiter.withPolicy(RateLimiter.Policy.SHED).withPointsPerSecond(100)
+				.withEndpointPointsPerSecond(60).withEndpointBytesPerSecond(1000).withClock(now::get).build();
+		assertTrue(limiter.acquire("a", 60, 100));
+		// 节点a的数据点令牌用完
+		assertFalse(limiter.acquire("a", 10, 100));
+		// 节点b有自己的令牌，但全局只剩40
+		assertTrue(limiter.acquire("b", 40, 100));
+		assertFalse(limiter.acquire("b", 10, 100));
+		assertEquals(20, limiter.getShedPoints());
+
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		assertTrue(limiter.acquire("a", 1, 500));
+		// 字节数超限时数据点令牌被归还
+		assertFalse(limiter.acquire("a", 10, 800));
+		assertTrue(limiter.acquire("a", 59, 100));
+	}
+
+	@Test
+	public void testWait() {
+		final RateLimiter limiter = RateLimiter.withPolicy(RateLimiter.Policy.WAIT).withPointsPerSecond(1000)
+				.withBurst(100, TimeUnit.MILLISECONDS).withMaxWait(1, TimeUnit.SECONDS).build();
+		final long start = System.nanoTime();
+		for (int i = 0; i < 4; i++) {
+			assertTrue(limiter.acquire("a", 100, 0));
+		}
+		// 突发100个，之后每100个等待100ms
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+		assertFalse(limiter.acquire("a", 5000, 0));
+		assertEquals(5000, limiter.getShedPoints());
+	}
+
+	@Test
+	public void testConcurrentAcquire() throws InterruptedException {
+		final TokenBucket bucket = new TokenBucket(1, 10_000, now::get);
+		final AtomicInteger acquired = new AtomicInteger();
+		final List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final Thread thread = new Thread(() -> {
+				for (int i = 0; i < 5000; i++) {
+					if (bucket.tryAcquire(1)) {
+						acquired.incrementAndGet();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(10_000, acquired.get());
+	}
+
+}
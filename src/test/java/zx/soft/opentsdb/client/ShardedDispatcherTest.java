@@ -0,0 +1,140 @@
+package zx.soft.opentsdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+import zx.soft.opentsdb.stub.StubTsd;
+
+public class ShardedDispatcherTest {
+
+	@Test
+	public void testShardOfIgnoresTagOrder() {
+		final Map<String, String> tags = new LinkedHashMap<>();
+		tags.put("host", "a");
+		tags.put("dc", "b");
+		final Map<String, String> reversed = new LinkedHashMap<>();
+		reversed.put("dc", "b");
+		reversed.put("host", "a");
+		final OpenTsdbMetric first = OpenTsdbMetric.named("foo").withTimestamp(1L).withValue(1).withTags(tags)
+				.build();
+		final OpenTsdbMetric second = OpenTsdbMetric.named("foo").withTimestamp(2L).withValue(2)
+				.withTags(reversed).build();
+		assertEquals(ShardedDispatcher.shardOf(first, 8), ShardedDispatcher.shardOf(second, 8));
+	}
+
+	@Test
+	public void testPreservesSeriesOrder() throws InterruptedException {
+		final Map<String, List<Long>> received = new ConcurrentHashMap<>();
+		final Set<String> threads = ConcurrentHashMap.newKeySet();
+		final ShardedDispatcher dispatcher = new ShardedDispatcher(4, 100, () -> 7, batch -> {
+			threads.add(Thread.currentThread().getName());
+			for (OpenTsdbMetric metric : batch) {
+				received.computeIfAbsent(metric.getMetric(), k -> new ArrayList<>()).add(metric.getTimestamp());
+			}
+		});
+		for (long timestamp = 1; timestamp <= 200; timestamp++) {
+			final List<OpenTsdbMetric> metrics = new ArrayList<>();
+			for (int series = 0; series < 50; series++) {
+				metrics.add(OpenTsdbMetric.named("series" + series).withTimestamp(timestamp).withValue(series)
+						.withTags(new HashMap<String, String>()).build());
+			}
+			dispatcher.dispatch(metrics);
+		}
+		assertTrue(dispatcher.flush(10, TimeUnit.SECONDS));
+		dispatcher.close(1, TimeUnit.SECONDS);
+
+		assertEquals(50, received.size());
+		for (List<Long> timestamps : received.values()) {
+			assertEquals(200, timestamps.size());
+			for (int i = 0; i < timestamps.size(); i++) {
+				assertEquals(i + 1, timestamps.get(i).longValue());
+			}
+		}
+		assertTrue(threads.size() > 1);
+	}
+
+	@Test
+	public void testClientSharding() throws IOException, InterruptedException {
+		try (StubTsd tsd = StubTsd.start(4);
+				OpenTsdbClient client = OpenTsdbClient.forService(tsd.getHttpUrl())
+						.withTransport(OpenTsdbClient.TransportType.JDK).withShards(4).create()) {
+			client.setBatchSizeLimit(50);
+			final Set<OpenTsdbMetric> metrics = new HashSet<>();
+			for (int i = 0; i < 1000; i++) {
+				metrics.add(new OpenTsdbMetric("foo" + i, i, "host", "a"));
+			}
+			client.send(metrics);
+			assertTrue(client.flush(10, TimeUnit.SECONDS));
+			assertEquals(1000, tsd.getPoints());
+		}
+	}
+
+	@Test
+	public void testSendAfterClose() throws IOException {
+		try (StubTsd tsd = StubTsd.start(1)) {
+			final OpenTsdbClient client = OpenTsdbClient.forService(tsd.getHttpUrl())
+					.withTransport(OpenTsdbClient.TransportType.JDK).withShards(2).create();
+			client.close();
+			// 关闭后发送的数据点被丢弃并计数，不抛出异常
+			client.send(Arrays.asList(new OpenTsdbMetric("a", 1, "host", "a"), new OpenTsdbMetric("b", 1, "host",
+					"a")));
+			assertEquals(2, client.getDroppedPoints(Lane.DEFAULT));
+			assertEquals(0, tsd.getPoints());
+		}
+	}
+
+	@Test
+	public void testCloseStopsAfterTimeout() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final ShardedDispatcher dispatcher = new ShardedDispatcher(1, 1, () -> 1, batch -> {
+			calls.incrementAndGet();
+			started.countDown();
+			try {
+				Thread.sleep(10_000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		dispatcher.dispatch(Collections.singletonList(new OpenTsdbMetric("warmup", 1, "host", "a")));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		// 第一个数据点填满队列，第二个阻塞等待空位
+		final Thread producer = new Thread(() -> dispatcher.dispatch(Arrays.asList(new OpenTsdbMetric("a", 1,
+				"host", "a"), new OpenTsdbMetric("b", 1, "host", "a"), new OpenTsdbMetric("c", 1, "host", "a"))));
+		producer.start();
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (producer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+
+		dispatcher.close(100, TimeUnit.MILLISECONDS);
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		assertEquals(2, dispatcher.getDropped(Lane.DEFAULT));
+		assertTrue(dispatcher.flush(0, TimeUnit.SECONDS));
+		Thread.sleep(200);
+		// 队列中的数据点被丢弃，不再发送
+		assertEquals(1, calls.get());
+	}
+
+}
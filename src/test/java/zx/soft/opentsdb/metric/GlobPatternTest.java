@@ -0,0 +1,32 @@
+package zx.soft.opentsdb.metric;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GlobPatternTest {
+
+	@Test
+	public void testMatch() {
+		final GlobPattern pattern = GlobPattern.compile("http.*.requests.*");
+		assertEquals("http.", pattern.literalPrefix());
+		assertArrayEquals(new String[] { "users", "count" }, pattern.match("http.users.requests.count"));
+		assertArrayEquals(new String[] { "", "" }, pattern.match("http..requests."));
+		assertNull(pattern.match("http.requests"));
+	}
+
+	@Test
+	public void testLiteralAndEdgeCases() {
+		assertTrue(GlobPattern.compile("exact").matches("exact"));
+		assertFalse(GlobPattern.compile("exact").matches("exactly"));
+		assertTrue(GlobPattern.compile("*").matches(""));
+		// 前后片段不能重叠
+		assertFalse(GlobPattern.compile("a.*.a").matches("a.a"));
+		assertTrue(GlobPattern.compile("a**b").matches("ab"));
+	}
+
+}
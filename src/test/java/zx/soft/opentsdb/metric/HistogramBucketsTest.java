@@ -0,0 +1,43 @@
+package zx.soft.opentsdb.metric;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class HistogramBucketsTest {
+
+	@Test
+	public void testLogLinear() {
+		final HistogramBuckets buckets = HistogramBuckets.logLinear(1, 8, 2);
+		// [1,1.5) [1.5,2) [2,3) [3,4) [4,6) [6,8)
+		assertEquals(6, buckets.size());
+		assertEquals("1,1.5", buckets.label(0));
+		assertEquals("6,8", buckets.label(5));
+
+		assertEquals(-1, buckets.indexOf(0.5));
+		assertEquals(0, buckets.indexOf(1));
+		assertEquals(1, buckets.indexOf(1.7));
+		assertEquals(2, buckets.indexOf(2));
+		assertEquals(5, buckets.indexOf(7.99));
+		assertEquals(6, buckets.indexOf(8));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBounds() {
+		HistogramBuckets.of(1, 1, 2);
+	}
+
+	@Test
+	public void testSerializeJson() {
+		final HistogramBuckets buckets = HistogramBuckets.of(0, 1.75, 3.5, 10);
+		final OpenTsdbHistogram histogram = new OpenTsdbHistogram("sys.cpu.nice", 1346846400L, buckets,
+				new long[] { 12, 0, 16 }, 0, 1, Collections.singletonMap("host", "web01"));
+		assertEquals("[{\"metric\":\"sys.cpu.nice\",\"timestamp\":1346846400,\"overflow\":1,\"underflow\":0,"
+				+ "\"buckets\":{\"0,1.75\":12,\"3.5,10\":16},\"tags\":{\"host\":\"web01\"}}]", new String(
+				OpenTsdbHistogram.serializeJson(Collections.singletonList(histogram)), StandardCharsets.UTF_8));
+	}
+
+}
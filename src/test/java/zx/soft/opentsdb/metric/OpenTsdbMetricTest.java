@@ -1,10 +1,14 @@
 package zx.soft.opentsdb.metric;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -34,4 +38,58 @@ public class OpenTsdbMetricTest {
 		assertNotNull(o1.toString());
 	}
 
+	@Test
+	public void testSerializeJson() {
+		OpenTsdbMetric o1 = OpenTsdbMetric.named("sys.cpu.nice").withValue(18L).withTimestamp(1346846400L)
+				.withTags(Collections.singletonMap("host", "web01")).build();
+		OpenTsdbMetric o2 = OpenTsdbMetric.named("sys.\"quoted\"").withValue(0.5).withTimestamp(1346846400L).build();
+
+		String json = new String(OpenTsdbMetric.serializeJson(Arrays.asList(o1, o2)), StandardCharsets.UTF_8);
+		assertEquals("[{\"metric\":\"sys.cpu.nice\",\"timestamp\":1346846400,\"value\":18,\"tags\":{\"host\":\"web01\"}},"
+				+ "{\"metric\":\"sys.\\\"quoted\\\"\",\"timestamp\":1346846400,\"value\":0.5,\"tags\":{}}]", json);
+	}
+
+	@Test
+	public void testSeriesHash() {
+		OpenTsdbMetric o1 = new OpenTsdbMetric("foo", 1, "a", "1", "b", "2");
+		OpenTsdbMetric o2 = new OpenTsdbMetric("foo", 2, "b", "2", "a", "1");
+		OpenTsdbMetric o3 = new OpenTsdbMetric("foo", 1, "a", "2", "b", "1");
+
+		assertEquals(o1.seriesHash(), o2.seriesHash());
+		assertTrue(o1.sameSeries(o2));
+		assertFalse(o1.seriesHash() == o3.seriesHash());
+		assertFalse(o1.sameSeries(o3));
+	}
+
+	@Test
+	public void testMillisecondTimestamp() {
+		assertEquals(1346846400L, OpenTsdbMetric.toTimestamp(1346846400123L, TimeUnit.SECONDS));
+		assertEquals(1346846400123L, OpenTsdbMetric.toTimestamp(1346846400123L, TimeUnit.MILLISECONDS));
+
+		OpenTsdbMetric metric = OpenTsdbMetric.named("foo").withValue(1L).withTimestamp(1346846400123L).build();
+		assertEquals("put foo 1346846400123 1", metric.serialize());
+		assertEquals("[{\"metric\":\"foo\",\"timestamp\":1346846400123,\"value\":1,\"tags\":{}}]", new String(
+				OpenTsdbMetric.serializeJson(Collections.singletonList(metric)), StandardCharsets.UTF_8));
+
+		long now = System.currentTimeMillis();
+		assertTrue(new OpenTsdbMetric("foo", 1, TimeUnit.MILLISECONDS).getTimestamp() >= now);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedPrecision() {
+		new OpenTsdbMetric("foo", 1, TimeUnit.MICROSECONDS);
+	}
+
+	@Test
+	public void testBuilderChangesAfterBuildDoNotAffectBuiltMetric() {
+		final OpenTsdbMetric.Builder builder = OpenTsdbMetric.named("foo").withTimestamp(1L).withValue(1)
+				.withTags(Collections.singletonMap("host", "a"));
+		final OpenTsdbMetric metric = builder.build();
+		final long hash = metric.seriesHash();
+		builder.withTags(Collections.singletonMap("dc", "b"));
+		assertEquals(1, metric.getTags().size());
+		assertEquals(hash, metric.seriesHash());
+		assertEquals(2, builder.build().getTags().size());
+	}
+
 }
@@ -0,0 +1,103 @@
+package zx.soft.opentsdb.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+	// 每10秒一个数据点
+	private static final long STEP = 10;
+
+	private static final long HOUR = 3600;
+
+	private final AtomicLong now = new AtomicLong();
+
+	private final List<OpenTsdbQuery> fetched = new ArrayList<>();
+
+	private QueryCache cache;
+
+	@Before
+	public void setUp() {
+		now.set(TimeUnit.SECONDS.toMillis(100 * HOUR + 30 * 60));
+		cache = QueryCache.withBucketSize(1, TimeUnit.HOURS).withSettleTime(1, TimeUnit.MINUTES)
+				.withMaxDataPoints(10_000).withClock(now::get).build();
+	}
+
+	@Test
+	public void testServesHistoricalBucketsFromCache() throws Exception {
+		final OpenTsdbQuery query = query(96 * HOUR + 600);
+		final QueryResult first = cache.query(query, this::fetch).get(0);
+		// 历史桶一次查询，尾部一次查询
+		assertEquals(2, fetched.size());
+		assertEquals(TimeUnit.SECONDS.toMillis(96 * HOUR), fetched.get(0).getStart());
+		assertEquals(TimeUnit.SECONDS.toMillis(100 * HOUR), fetched.get(1).getStart());
+		assertEquals(96 * HOUR + 600, first.getTimestamp(0));
+
+		// 时间窗口向后滑动，只查询尾部
+		now.addAndGet(TimeUnit.MINUTES.toMillis(5));
+		fetched.clear();
+		final QueryResult second = cache.query(query(96 * HOUR + 900), this::fetch).get(0);
+		assertEquals(1, fetched.size());
+		assertEquals(TimeUnit.SECONDS.toMillis(100 * HOUR), fetched.get(0).getStart());
+		assertEquals(96 * HOUR + 900, second.getTimestamp(0));
+		assertEquals(now.get() / 1000 / STEP * STEP, second.getTimestamp(second.size() - 1));
+		assertEquals((now.get() / 1000 / STEP * STEP - (96 * HOUR + 900)) / STEP + 1, second.size());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		cache = QueryCache.withBucketSize(1, TimeUnit.HOURS).withMaxDataPoints(800).withClock(now::get).build();
+		cache.query(query(97 * HOUR), this::fetch);
+		// 每个桶360个点，加上序列和桶本身的开销，只能保留两个桶
+		assertEquals(362 * 2, cache.getCachedDataPoints());
+
+		// 最早的桶已被淘汰，需要重新查询
+		fetched.clear();
+		cache.query(query(97 * HOUR), this::fetch);
+		assertEquals(2, fetched.size());
+		assertEquals(TimeUnit.SECONDS.toMillis(97 * HOUR), fetched.get(0).getStart());
+		assertEquals(TimeUnit.SECONDS.toMillis(98 * HOUR) - 1, (long) fetched.get(0).getEnd());
+	}
+
+	@Test
+	public void testRateQueryIsNotCached() throws Exception {
+		final OpenTsdbQuery query = OpenTsdbQuery.from(96 * HOUR)
+				.addSubQuery(SubQuery.metric("m").withRate(true).build()).build();
+		cache.query(query, this::fetch);
+		cache.query(query, this::fetch);
+		assertEquals(2, fetched.size());
+		assertEquals(0, cache.getCachedDataPoints());
+	}
+
+	private OpenTsdbQuery query(long start) {
+		return OpenTsdbQuery.from(start)
+				.addSubQuery(SubQuery.metric("m").withTags(Collections.singletonMap("host", "a")).build()).build();
+	}
+
+	/**
+	 * 模拟TSD，返回区间内每10秒一个数据点
+	 */
+	private List<QueryResult> fetch(OpenTsdbQuery query) {
+		fetched.add(query);
+		final long start = (query.getStart() / 1000 + STEP - 1) / STEP * STEP;
+		final long end = Math.min(query.getEnd() / 1000, now.get() / 1000);
+		final int size = (int) Math.max(0, (end - start) / STEP + 1);
+		final long[] timestamps = new long[size];
+		final double[] values = new double[size];
+		for (int i = 0; i < size; i++) {
+			timestamps[i] = start + i * STEP;
+			values[i] = timestamps[i];
+		}
+		return Collections.singletonList(new QueryResult("m", Collections.singletonMap("host", "a"),
+				Collections.<String> emptyList(), timestamps, values, size));
+	}
+
+}
@@ -0,0 +1,85 @@
+package zx.soft.opentsdb.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+public class QueryResponseParserTest {
+
+	@Test
+	public void testParseQuery() throws IOException {
+		final String json = "[{\"metric\":\"sys.cpu.nice\",\"tags\":{\"host\":\"web01\"},\"aggregateTags\":[\"dc\"],"
+				+ "\"query\":{\"aggregator\":\"sum\",\"filters\":[{\"tagk\":\"host\"}]},"
+				+ "\"dps\":{\"1346846400\":18,\"1346846460\":-2.5,\"1346846520\":NaN,\"1346846580\":null}},"
+				+ "{\"metric\":\"sys.cpu.user\",\"tags\":{},\"aggregateTags\":[],\"dps\":{}}]";
+		final List<QueryResult> results = QueryResponseParser.parseQuery(stream(json));
+
+		assertEquals(2, results.size());
+		final QueryResult first = results.get(0);
+		assertEquals("sys.cpu.nice", first.getMetric());
+		assertEquals("web01", first.getTags().get("host"));
+		assertEquals(Collections.singletonList("dc"), first.getAggregateTags());
+		assertArrayEquals(new long[] { 1346846400L, 1346846460L, 1346846520L, 1346846580L },
+				first.getTimestamps());
+		assertEquals(18.0, first.getValue(0), 0.0001);
+		assertEquals(-2.5, first.getValue(1), 0.0001);
+		assertTrue(Double.isNaN(first.getValue(2)));
+		assertTrue(Double.isNaN(first.getValue(3)));
+		assertEquals(0, results.get(1).size());
+	}
+
+	@Test
+	public void testParseQueryArrays() throws IOException {
+		final StringBuilder json = new StringBuilder("[{\"metric\":\"m\",\"dps\":[");
+		for (int i = 0; i < 1000; i++) {
+			json.append(i == 0 ? "" : ",").append('[').append(1000L + i).append(',').append(i).append(".5]");
+		}
+		json.append("]}]");
+		final QueryResult result = QueryResponseParser.parseQuery(stream(json.toString())).get(0);
+
+		assertEquals(1000, result.size());
+		assertEquals(1999L, result.getTimestamp(999));
+		assertEquals(999.5, result.getValue(999), 0.0001);
+	}
+
+	@Test
+	public void testParseLast() throws IOException {
+		final String json = "[{\"metric\":\"sys.cpu.nice\",\"timestamp\":1346846400000,\"value\":\"18\","
+				+ "\"tags\":{\"host\":\"web01\"},\"tsuid\":\"000001000001000001\"},"
+				+ "{\"metric\":\"sys.load\",\"timestamp\":1346846400,\"value\":\"0.25\",\"tags\":{}}]";
+		final List<OpenTsdbMetric> results = QueryResponseParser.parseLast(stream(json));
+
+		assertEquals(2, results.size());
+		assertEquals("sys.cpu.nice", results.get(0).getMetric());
+		assertEquals((Long) 1346846400000L, results.get(0).getTimestamp());
+		assertEquals(18L, results.get(0).getValue());
+		assertEquals("web01", results.get(0).getTags().get("host"));
+		assertEquals(0.25, results.get(1).getValue());
+	}
+
+	@Test
+	public void testSerializeQuery() {
+		final OpenTsdbQuery query = OpenTsdbQuery.from(1346846400L).withEnd(1346846500L)
+				.addSubQuery(SubQuery.metric("sys.cpu.nice").withDownsample("1m-avg")
+						.withTags(Collections.singletonMap("host", "*")).build()).build();
+		assertEquals("{\"start\":1346846400,\"end\":1346846500,\"queries\":[{\"aggregator\":\"sum\","
+				+ "\"metric\":\"sys.cpu.nice\",\"downsample\":\"1m-avg\",\"tags\":{\"host\":\"*\"}}]}",
+				new String(query.serializeJson(), StandardCharsets.UTF_8));
+	}
+
+	private static InputStream stream(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,132 @@
+package zx.soft.opentsdb.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import zx.soft.opentsdb.metric.HistogramBuckets;
+import zx.soft.opentsdb.metric.OpenTsdbHistogram;
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class MetricRulesTest {
+
+	@Test
+	public void testIncludeExclude() {
+		final MetricRules rules = MetricRules.builder().exclude("jvm.threads.*").include("jvm.*").build();
+		assertTrue(rules.resolve("jvm.memory.heap").included);
+		assertFalse(rules.resolve("jvm.threads.count").included);
+		// 存在include规则时，不匹配的Metric不输出
+		assertFalse(rules.resolve("http.requests").included);
+
+		final MetricRules excludeOnly = MetricRules.builder().exclude("*.debug").build();
+		assertTrue(excludeOnly.resolve("http.requests").included);
+		assertFalse(excludeOnly.resolve("http.debug").included);
+	}
+
+	@Test
+	public void testPatterns() {
+		final MetricRules rules = MetricRules.builder().include("a.b").include("x*y*z").build();
+		assertTrue(rules.resolve("a.b").included);
+		assertFalse(rules.resolve("a.bc").included);
+		assertTrue(rules.resolve("xyz").included);
+		assertTrue(rules.resolve("x.1.y.2.z").included);
+		assertFalse(rules.resolve("x.1.z.2.y").included);
+		assertFalse(rules.resolve("xz").included);
+	}
+
+	@Test
+	public void testRename() {
+		final MetricRules rules = MetricRules.builder().rename("http.*.requests.*", "requests.$2.$1")
+				.rename("http.*", "web.$1").build();
+		assertEquals("requests.get.users", rules.resolve("http.users.requests.get").name);
+		assertEquals("web.errors", rules.resolve("http.errors").name);
+		assertEquals("db.queries", rules.resolve("db.queries").name);
+	}
+
+	@Test
+	public void testTags() {
+		final MetricRules rules = MetricRules.builder().addTags("db.*", "service", "mysql", "pool", "main")
+				.dropTags("db.pool.*", "pool", "host").build();
+		final Map<String, String> global = new HashMap<>();
+		global.put("host", "a");
+		global.put("dc", "b");
+
+		final Map<String, String> dbTags = rules.resolve("db.queries").applyTags(global);
+		assertEquals(4, dbTags.size());
+		assertEquals("mysql", dbTags.get("service"));
+
+		final Map<String, String> poolTags = rules.resolve("db.pool.active").applyTags(global);
+		assertEquals(2, poolTags.size());
+		assertEquals("mysql", poolTags.get("service"));
+		assertEquals("b", poolTags.get("dc"));
+
+		// 没有Tags规则时直接使用全局Tags
+		assertTrue(global == rules.resolve("http.requests").applyTags(global));
+	}
+
+	@Test
+	public void testConvertWithRules() {
+		final MetricRegistry registry = new MetricRegistry();
+		registry.counter("jvm.threads.count").inc();
+		registry.counter("http.users.requests").inc(3);
+		registry.timer("http.latency").update(5, TimeUnit.MILLISECONDS);
+
+		final MetricRules rules = MetricRules.builder().exclude("jvm.*").rename("http.*.requests", "requests")
+				.addTags("http.*.requests", "endpoint", "users").select("http.latency", "count", "p99").build();
+		final MetricConverter converter = new MetricConverter("app", Collections.singletonMap("host", "a"),
+				TimeUnit.SECONDS, TimeUnit.MILLISECONDS, null, rules);
+
+		final Set<OpenTsdbMetric> metrics = new HashSet<>();
+		converter.convert(registry.getGauges(), registry.getCounters(), registry.getHistograms(),
+				registry.getMeters(), registry.getTimers(), 1L, metrics, new ArrayList<OpenTsdbHistogram>());
+
+		final Map<String, OpenTsdbMetric> byName = new HashMap<>();
+		for (OpenTsdbMetric metric : metrics) {
+			byName.put(metric.getMetric(), metric);
+		}
+		assertEquals(3, byName.size());
+		assertNull(byName.get("app.jvm.threads.count.count"));
+		final OpenTsdbMetric requests = byName.get("app.requests.count");
+		assertEquals(3L, requests.getValue());
+		assertEquals("users", requests.getTags().get("endpoint"));
+		assertEquals("a", requests.getTags().get("host"));
+		assertEquals(1L, byName.get("app.http.latency.count").getValue());
+		assertEquals(5.0, (Double) byName.get("app.http.latency.p99").getValue(), 1e-9);
+	}
+
+	@Test
+	public void testSelectBuckets() {
+		final MetricRegistry registry = new MetricRegistry();
+		registry.timer("http.latency").update(5, TimeUnit.MILLISECONDS);
+		registry.timer("db.latency").update(5, TimeUnit.MILLISECONDS);
+
+		final MetricRules rules = MetricRules.builder().select("http.*", "count")
+				.select("db.*", "count", MetricRules.BUCKETS).build();
+		final MetricConverter converter = new MetricConverter(null, null, TimeUnit.SECONDS, TimeUnit.MILLISECONDS,
+				HistogramBuckets.of(1, 10, 100), rules);
+
+		final Set<OpenTsdbMetric> metrics = new HashSet<>();
+		final List<OpenTsdbHistogram> bucketed = new ArrayList<>();
+		converter.convert(registry.getGauges(), registry.getCounters(), registry.getHistograms(),
+				registry.getMeters(), registry.getTimers(), 1L, metrics, bucketed);
+
+		assertEquals(2, metrics.size());
+		assertEquals(1, bucketed.size());
+		assertEquals("db.latency", bucketed.get(0).getMetric());
+	}
+
+}
@@ -0,0 +1,78 @@
+package zx.soft.opentsdb.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import zx.soft.opentsdb.client.OpenTsdbClient;
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+@RunWith(MockitoJUnitRunner.class)
+public class MultiRegistryReporterTest {
+
+	private final long timestamp = 1000198;
+
+	@Mock
+	private OpenTsdbClient opentsdb;
+
+	@Mock
+	private Clock clock;
+
+	private MultiRegistryReporter reporter;
+
+	@Before
+	public void setUp() {
+		when(clock.getTime()).thenReturn(timestamp * 1000);
+		reporter = MultiRegistryReporter.forClient(opentsdb).withClock(clock).withBatchSize(50).build();
+	}
+
+	@Test
+	public void testReportMergesRegistries() {
+		final MetricRegistry tenantA = new MetricRegistry();
+		tenantA.counter("requests").inc(3);
+		final MetricRegistry tenantB = new MetricRegistry();
+		tenantB.counter("requests").inc(5);
+
+		reporter.addRegistry(tenantA, "app", Collections.singletonMap("tenant", "a"));
+		reporter.addRegistry(tenantB, "app", Collections.singletonMap("tenant", "b"));
+		reporter.report();
+
+		final ArgumentCaptor<Set> captor = ArgumentCaptor.forClass(Set.class);
+		verify(opentsdb).setBatchSizeLimit(50);
+		verify(opentsdb, times(1)).send(captor.capture());
+
+		final Set<OpenTsdbMetric> metrics = captor.getValue();
+		assertEquals(2, metrics.size());
+		final Map<String, Object> byTenant = new HashMap<>();
+		for (OpenTsdbMetric metric : metrics) {
+			assertEquals("app.requests.count", metric.getMetric());
+			assertEquals((Long) timestamp, metric.getTimestamp());
+			byTenant.put(metric.getTags().get("tenant"), metric.getValue());
+		}
+		assertEquals(3L, byTenant.get("a"));
+		assertEquals(5L, byTenant.get("b"));
+
+		reporter.removeRegistry(tenantB);
+		reporter.report();
+		verify(opentsdb, times(2)).send(captor.capture());
+		assertEquals(1, captor.getValue().size());
+	}
+
+}
@@ -1,13 +1,16 @@
 package zx.soft.opentsdb.reporter;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
@@ -22,6 +25,8 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import zx.soft.opentsdb.client.OpenTsdbClient;
+import zx.soft.opentsdb.metric.HistogramBuckets;
+import zx.soft.opentsdb.metric.OpenTsdbHistogram;
 import zx.soft.opentsdb.metric.OpenTsdbMetric;
 
 import com.codahale.metrics.Clock;
@@ -247,6 +252,53 @@ public class OpenTsdbReporterTest {
 		assertEquals((Double) meterMap.get("prefix.meter.m15"), 4.0, 0.0001);
 	}
 
+	@Test
+	public void testReportMillisecondTimestamps() {
+		final OpenTsdbReporter msReporter = OpenTsdbReporter.forRegistry(registry).withClock(clock)
+				.prefixedWith("prefix").withTimestampPrecision(TimeUnit.MILLISECONDS).build(opentsdb);
+		when(clock.getTime()).thenReturn(timestamp * 1000 + 250);
+		when(counter.getCount()).thenReturn(2L);
+		msReporter.report(this.<Gauge> map(), this.map("counter", counter), this.<Histogram> map(),
+				this.<Meter> map(), this.<Timer> map());
+		verify(opentsdb).send(captor.capture());
+
+		final Set<OpenTsdbMetric> metrics = captor.getValue();
+		assertEquals((Long) (timestamp * 1000 + 250), metrics.iterator().next().getTimestamp());
+	}
+
+	@Test
+	public void testReportTimerBuckets() {
+		final OpenTsdbReporter bucketReporter = OpenTsdbReporter.forRegistry(registry).withClock(clock)
+				.prefixedWith("prefix").withHistogramBuckets(HistogramBuckets.of(1, 2, 4, 8)).build(opentsdb);
+		final ArgumentCaptor<List> histogramCaptor = ArgumentCaptor.forClass(List.class);
+
+		final Timer timer = mock(Timer.class);
+		final Snapshot snapshot = mock(Snapshot.class);
+		when(timer.getSnapshot()).thenReturn(snapshot);
+		// 时长单位为毫秒，样本为纳秒
+		when(snapshot.getValues()).thenReturn(new long[] { 500_000, 1_500_000, 3_000_000, 3_500_000 });
+		when(timer.getCount()).thenReturn(8L);
+
+		bucketReporter.report(this.<Gauge> map(), this.<Counter> map(), this.<Histogram> map(), this.<Meter> map(),
+				this.map("timer", timer));
+
+		verify(opentsdb).send(captor.capture());
+		assertEquals(2, captor.getValue().size());
+		verify(opentsdb).sendHistograms(histogramCaptor.capture());
+		final OpenTsdbHistogram histogram = (OpenTsdbHistogram) histogramCaptor.getValue().get(0);
+		assertEquals("prefix.timer", histogram.getMetric());
+		// 4个样本代表8次调用
+		assertEquals(2, histogram.getUnderflow());
+		assertEquals(2, histogram.getCount(0));
+		assertEquals(4, histogram.getCount(1));
+		assertEquals(0, histogram.getCount(2));
+
+		// 本周期没有新增调用时不输出直方图
+		bucketReporter.report(this.<Gauge> map(), this.<Counter> map(), this.<Histogram> map(), this.<Meter> map(),
+				this.map("timer", timer));
+		verify(opentsdb, times(1)).sendHistograms(anyCollectionOf(OpenTsdbHistogram.class));
+	}
+
 	/**
 	 * 测试空的Metric集合发送到OpenTSDB失败情况，因为OpenTSDB解析JSON数据时需要通过验证。
 	 * 对于dropwizard的jvm.threads.deadlocks指标来说是个细节问题，因为这个指标在正常的操作条件下（无死锁）包含一个空集合
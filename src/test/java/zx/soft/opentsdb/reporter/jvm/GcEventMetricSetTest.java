@@ -0,0 +1,54 @@
+package zx.soft.opentsdb.reporter.jvm;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+
+public class GcEventMetricSetTest {
+
+	private final GcEventMetricSet metricSet = new GcEventMetricSet();
+
+	@After
+	public void tearDown() {
+		metricSet.close();
+	}
+
+	@Test
+	public void testRecordsPauses() throws InterruptedException {
+		final Map<String, Metric> metrics = metricSet.getMetrics();
+		assertTrue(metrics.containsKey("allocated"));
+		assertTrue(metrics.containsKey("live-data-size"));
+
+		final byte[][] garbage = new byte[64][];
+		for (int i = 0; i < 1024; i++) {
+			garbage[i % garbage.length] = new byte[64 * 1024];
+		}
+		System.gc();
+
+		// 通知由JVM的服务线程异步发送
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (pauseCount(metrics) == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(pauseCount(metrics) > 0);
+		assertTrue(((Counter) metrics.get("allocated")).getCount() > 0);
+	}
+
+	private static long pauseCount(Map<String, Metric> metrics) {
+		long count = 0;
+		for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+			if (entry.getKey().endsWith(".pauses")) {
+				count += ((Timer) entry.getValue()).getCount();
+			}
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,239 @@
+package zx.soft.opentsdb.stub;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import zx.soft.opentsdb.client.FailureTrackingTransport;
+import zx.soft.opentsdb.client.OpenTsdbClient;
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+/**
+ * 端到端压测工具，对{@link StubTsd}持续发送数据，输出每秒数据点数、发送延迟p99和内存分配速率
+ * <p/>
+ * 直接运行main方法，不在单元测试中执行。参数依次为：
+ * 协议（http为jersey连接池，jdk为JDK传输层，telnet）、线程数、持续秒数、每批数据点数、注入延迟毫秒、错误概率、断开概率，均可省略。
+ * telnet协议与SimpleReporter相同，每批数据新建一个连接，逐行写入put命令。
+ * 失败的批次单独计数，不计入发送量和延迟：HTTP协议通过{@link FailureTrackingTransport}识别失败的请求；
+ * telnet协议只能发现连接或写入失败，没有响应，写入缓冲区之后的断开发现不了，以accepted为准。
+ * 分配速率只统计发送线程，使用HotSpot的线程分配计数。
+ *
+ * @author wanggang
+ *
+ */
+public class LoadGenerator {
+
+	public static void main(String[] args) throws Exception {
+		final String protocol = args.length > 0 ? args[0] : "http";
+		final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		final int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+		final long latency = args.length > 4 ? Long.parseLong(args[4]) : 0;
+		final double errorRate = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+		final double resetRate = args.length > 6 ? Double.parseDouble(args[6]) : 0;
+
+		try (StubTsd tsd = StubTsd.start(threads)) {
+			final FailureTrackingTransport transport = createTransport(protocol, tsd.getHttpUrl(), threads);
+			try (OpenTsdbClient client = transport == null ? null : OpenTsdbClient.create(transport)) {
+				benchmark(protocol, tsd, transport, client, threads, seconds, batchSize, latency, errorRate,
+						resetRate);
+			}
+		}
+	}
+
+	private static void benchmark(String protocol, StubTsd tsd, FailureTrackingTransport transport,
+			OpenTsdbClient client, int threads, int seconds, int batchSize, long latency, double errorRate,
+			double resetRate) throws Exception {
+		final TelnetSender telnet = transport == null ? new TelnetSender(tsd) : null;
+		// 客户端只记录发送异常，通过传输层包装识别当前线程的批次是否失败
+		final Sender sender = telnet != null ? telnet : metrics -> {
+			transport.begin();
+			client.send(metrics);
+			return !transport.failed();
+		};
+
+		// 预热
+		run(sender, threads, 2, batchSize);
+		tsd.resetCounters();
+
+		tsd.setLatency(latency, TimeUnit.MILLISECONDS);
+		tsd.setErrorRate(errorRate);
+		tsd.setResetRate(resetRate);
+		final Result result = run(sender, threads, seconds, batchSize);
+
+		final double elapsed = result.elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+		final Exception lastError = telnet != null ? telnet.lastError : transport.getLastError();
+		System.out.printf("protocol=%s threads=%d batch=%d latency=%dms errors=%.2f resets=%.2f%n", protocol,
+				threads, batchSize, latency, errorRate, resetRate);
+		System.out.printf("sent      %,d batches, %,d points%n", result.latencies.length,
+				result.latencies.length * (long) batchSize);
+		System.out.printf("failed    %,d batches%s%n", result.failures, lastError == null ? "" : ", last: "
+				+ lastError);
+		System.out.printf("accepted  %,d points, %,.0f points/sec%n", tsd.getPoints(), tsd.getPoints() / elapsed);
+		System.out.printf("faults    %,d errors, %,d resets%n", tsd.getErrors(), tsd.getResets());
+		System.out.printf("latency   p50=%.2fms p99=%.2fms max=%.2fms%n", percentile(result.latencies, 0.50),
+				percentile(result.latencies, 0.99), percentile(result.latencies, 1.0));
+		System.out.printf("alloc     %,.1f MB/sec, %,.0f bytes/point%n", result.allocatedBytes / elapsed / 1e6,
+				result.allocatedBytes / (double) Math.max(1, result.latencies.length * (long) batchSize));
+	}
+
+	/**
+	 * HTTP协议的传输层，telnet协议返回null
+	 */
+	private static FailureTrackingTransport createTransport(String protocol, String baseUrl, int threads) {
+		if ("telnet".equals(protocol)) {
+			return null;
+		}
+		if ("jdk".equals(protocol)) {
+			return FailureTrackingTransport.forBuilder(OpenTsdbClient.forService(baseUrl).withTransport(
+					OpenTsdbClient.TransportType.JDK));
+		}
+		return FailureTrackingTransport.forBuilder(OpenTsdbClient.forService(baseUrl).withPooledConnections()
+				.withMaxConnections(threads).withMaxConnectionsPerRoute(threads));
+	}
+
+	/**
+	 * 发送一批数据
+	 */
+	private interface Sender {
+
+		/**
+		 * @return 是否发送成功，失败的批次不计入延迟统计
+		 */
+		boolean send(Set<OpenTsdbMetric> metrics) throws Exception;
+
+	}
+
+	/**
+	 * 按SimpleReporter的方式通过telnet协议发送
+	 */
+	private static class TelnetSender implements Sender {
+
+		private final StubTsd tsd;
+
+		private volatile Exception lastError;
+
+		private TelnetSender(StubTsd tsd) {
+			this.tsd = tsd;
+		}
+
+		@Override
+		public boolean send(Set<OpenTsdbMetric> metrics) {
+			try (Socket socket = new Socket(tsd.getTelnetHost(), tsd.getTelnetPort());
+					PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+							socket.getOutputStream())))) {
+				for (OpenTsdbMetric metric : metrics) {
+					writer.println(metric.serialize());
+				}
+				writer.flush();
+				// PrintWriter不抛出IOException，需要检查错误标志
+				if (writer.checkError()) {
+					throw new IOException("Telnet write failed");
+				}
+				return true;
+			} catch (Exception e) {
+				// 与SimpleReporter一样只记录，不中断发送
+				lastError = e;
+				return false;
+			}
+		}
+
+	}
+
+	private static class Result {
+
+		private long elapsedNanos;
+
+		private long allocatedBytes;
+
+		private long[] latencies;
+
+		private long failures;
+
+	}
+
+	private static Result run(final Sender sender, int threads, int seconds, final int batchSize)
+			throws Exception {
+		final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+		final List<Future<long[]>> futures = new ArrayList<>();
+		final long[] allocated = new long[threads];
+		final long[] failed = new long[threads];
+		for (int t = 0; t < threads; t++) {
+			final int index = t;
+			futures.add(executor.submit(() -> {
+				final long threadId = Thread.currentThread().getId();
+				final long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+				long[] latencies = new long[1024];
+				int count = 0;
+				final Map<String, String> tags = Collections.singletonMap("thread", Integer.toString(index));
+				long timestamp = System.currentTimeMillis() / 1000;
+				while (System.nanoTime() < deadline) {
+					final Set<OpenTsdbMetric> metrics = new HashSet<>();
+					for (int i = 0; i < batchSize; i++) {
+						metrics.add(OpenTsdbMetric.named("load.metric" + i).withTimestamp(timestamp).withValue(i)
+								.withTags(tags).build());
+					}
+					timestamp++;
+					final long begin = System.nanoTime();
+					if (!sender.send(metrics)) {
+						failed[index]++;
+						continue;
+					}
+					if (count == latencies.length) {
+						latencies = Arrays.copyOf(latencies, count * 2);
+					}
+					latencies[count++] = System.nanoTime() - begin;
+				}
+				allocated[index] = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+				return Arrays.copyOf(latencies, count);
+			}));
+		}
+
+		final Result result = new Result();
+		result.latencies = new long[0];
+		for (Future<long[]> future : futures) {
+			final long[] latencies = future.get();
+			final int offset = result.latencies.length;
+			result.latencies = Arrays.copyOf(result.latencies, offset + latencies.length);
+			System.arraycopy(latencies, 0, result.latencies, offset, latencies.length);
+		}
+		result.elapsedNanos = System.nanoTime() - start;
+		executor.shutdown();
+		for (int t = 0; t < threads; t++) {
+			result.allocatedBytes += allocated[t];
+			result.failures += failed[t];
+		}
+		Arrays.sort(result.latencies);
+		return result;
+	}
+
+	/**
+	 * 已排序延迟的分位数，单位毫秒
+	 */
+	private static double percentile(long[] sorted, double quantile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		final int index = (int) Math.ceil(quantile * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+}
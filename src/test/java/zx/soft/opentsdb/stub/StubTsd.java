@@ -0,0 +1,447 @@
+package zx.soft.opentsdb.stub;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import zx.soft.opentsdb.json.JsonReader;
+import zx.soft.opentsdb.json.JsonWriter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 进程内的TSD桩服务，用于端到端的吞吐量测试和故障测试
+ * <p/>
+ * 同时提供HTTP接口（/api/put，支持?summary和?details，以及/api/histogram）和telnet的put协议，
+ * 两者都监听本地随机端口。可以注入响应延迟、错误（HTTP返回500，telnet返回错误行）和连接断开
+ * （HTTP不返回响应直接关闭连接，telnet发送RST），各类故障按给定概率触发，运行中可以随时调整。
+ *
+ * @author wanggang
+ *
+ */
+public class StubTsd implements Closeable {
+
+	private final HttpServer http;
+
+	private final ServerSocket telnet;
+
+	private final ExecutorService executor;
+
+	// 每个请求（telnet为每个连接）的附加延迟，毫秒
+	private volatile long latency;
+
+	// 返回错误的概率
+	private volatile double errorRate;
+
+	// 断开连接的概率
+	private volatile double resetRate;
+
+	private volatile boolean running = true;
+
+	private final AtomicLong points = new AtomicLong();
+
+	private final AtomicLong failedPoints = new AtomicLong();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong resets = new AtomicLong();
+
+	/**
+	 * 启动桩服务
+	 *
+	 * @param threads 处理线程数
+	 */
+	public static StubTsd start(int threads) throws IOException {
+		return new StubTsd(threads);
+	}
+
+	private StubTsd(int threads) throws IOException {
+		final InetAddress loopback = InetAddress.getLoopbackAddress();
+		executor = Executors.newCachedThreadPool(r -> {
+			final Thread thread = new Thread(r, "stub-tsd");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		http = HttpServer.create(new InetSocketAddress(loopback, 0), 128);
+		http.createContext("/api/put", this::handlePut);
+		http.createContext("/api/histogram", this::handleHistogram);
+		http.setExecutor(Executors.newFixedThreadPool(threads, r -> {
+			final Thread thread = new Thread(r, "stub-tsd-http");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		http.start();
+
+		telnet = new ServerSocket(0, 128, loopback);
+		executor.execute(this::accept);
+	}
+
+	public String getHttpUrl() {
+		return "http://" + http.getAddress().getHostString() + ":" + http.getAddress().getPort();
+	}
+
+	public String getTelnetHost() {
+		return telnet.getInetAddress().getHostAddress();
+	}
+
+	public int getTelnetPort() {
+		return telnet.getLocalPort();
+	}
+
+	public void setLatency(long latency, TimeUnit unit) {
+		this.latency = unit.toMillis(latency);
+	}
+
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	public void setResetRate(double resetRate) {
+		this.resetRate = resetRate;
+	}
+
+	/**
+	 * 成功写入的数据点数
+	 */
+	public long getPoints() {
+		return points.get();
+	}
+
+	/**
+	 * 格式错误被拒绝的数据点数
+	 */
+	public long getFailedPoints() {
+		return failedPoints.get();
+	}
+
+	/**
+	 * HTTP请求数和telnet连接数
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * 注入的错误次数
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * 注入的断开次数
+	 */
+	public long getResets() {
+		return resets.get();
+	}
+
+	/**
+	 * 清空计数
+	 */
+	public void resetCounters() {
+		points.set(0);
+		failedPoints.set(0);
+		requests.set(0);
+		errors.set(0);
+		resets.set(0);
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		http.stop(0);
+		((ExecutorService) http.getExecutor()).shutdownNow();
+		try {
+			telnet.close();
+		} catch (IOException e) {
+			// 忽略
+		}
+		executor.shutdownNow();
+	}
+
+	private void handlePut(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		final Fault fault = nextFault();
+		if (fault == Fault.RESET) {
+			// 不发送响应头直接关闭，连接被断开
+			exchange.close();
+			return;
+		}
+		if (fault == Fault.ERROR) {
+			drain(exchange.getRequestBody());
+			respond(exchange, 500, "{\"error\":{\"code\":500,\"message\":\"Injected error\"}}");
+			return;
+		}
+
+		final String query = exchange.getRequestURI().getRawQuery();
+		final boolean details = query != null && query.contains("details");
+		final boolean summary = details || query != null && query.contains("summary");
+		final List<String> pointErrors = new ArrayList<>();
+		long success = 0;
+		long failed = 0;
+		try (JsonReader reader = new JsonReader(new InputStreamReader(exchange.getRequestBody(),
+				StandardCharsets.UTF_8))) {
+			final boolean array = reader.peek() == JsonReader.Token.BEGIN_ARRAY;
+			if (array) {
+				reader.beginArray();
+			}
+			while (!array || reader.hasNext()) {
+				final String error = readPoint(reader);
+				if (error == null) {
+					success++;
+				} else {
+					failed++;
+					pointErrors.add(error);
+				}
+				if (!array) {
+					break;
+				}
+			}
+			if (array) {
+				reader.endArray();
+			}
+		} catch (IOException | RuntimeException e) {
+			respond(exchange, 400, "{\"error\":{\"code\":400,\"message\":\"Unable to parse the given JSON\"}}");
+			return;
+		}
+		points.addAndGet(success);
+		failedPoints.addAndGet(failed);
+
+		final int status = failed == 0 ? (summary ? 200 : 204) : 400;
+		if (!summary) {
+			respond(exchange, status, null);
+			return;
+		}
+		final JsonWriter body = new JsonWriter();
+		body.beginObject().name("success").value(success).name("failed").value(failed);
+		if (details) {
+			body.name("errors").beginArray();
+			for (String error : pointErrors) {
+				body.beginObject().name("error").value(error).endObject();
+			}
+			body.endArray();
+		}
+		body.endObject();
+		respond(exchange, status, body.toString());
+	}
+
+	private void handleHistogram(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		final Fault fault = nextFault();
+		if (fault == Fault.RESET) {
+			exchange.close();
+			return;
+		}
+		drain(exchange.getRequestBody());
+		if (fault == Fault.ERROR) {
+			respond(exchange, 500, "{\"error\":{\"code\":500,\"message\":\"Injected error\"}}");
+		} else {
+			respond(exchange, 204, null);
+		}
+	}
+
+	/**
+	 * 读取一个数据点，返回错误信息，数据点合法时返回null
+	 */
+	private static String readPoint(JsonReader reader) throws IOException {
+		String metric = null;
+		boolean timestamp = false;
+		double value = Double.NaN;
+		int tags = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			final String name = reader.nextName();
+			if ("metric".equals(name)) {
+				metric = reader.nextString();
+			} else if ("timestamp".equals(name)) {
+				timestamp = reader.nextLong() > 0;
+			} else if ("value".equals(name)) {
+				value = reader.nextDouble();
+			} else if ("tags".equals(name)) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					reader.nextName();
+					reader.nextString();
+					tags++;
+				}
+				reader.endObject();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (metric == null || metric.isEmpty()) {
+			return "Metric name was empty";
+		}
+		if (!timestamp) {
+			return "Invalid timestamp";
+		}
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return "Unable to parse value to a number";
+		}
+		if (tags == 0) {
+			return "Missing tags";
+		}
+		return null;
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket socket = telnet.accept();
+				executor.execute(() -> handleTelnet(socket));
+			} catch (IOException e) {
+				// 服务关闭
+			}
+		}
+	}
+
+	private void handleTelnet(Socket socket) {
+		requests.incrementAndGet();
+		try (Socket s = socket;
+				BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(),
+						StandardCharsets.UTF_8));
+				Writer writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+			final Fault fault = nextFault();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (fault == Fault.RESET) {
+					// SO_LINGER为0时关闭会发送RST
+					s.setSoLinger(true, 0);
+					return;
+				}
+				if (line.startsWith("put ")) {
+					if (fault == Fault.ERROR) {
+						writer.write("put: Injected error\n");
+						writer.flush();
+						continue;
+					}
+					final String error = parsePut(line);
+					if (error == null) {
+						points.incrementAndGet();
+					} else {
+						failedPoints.incrementAndGet();
+						writer.write("put: illegal argument: " + error + "\n");
+						writer.flush();
+					}
+				} else if ("version".equals(line)) {
+					writer.write("net.opentsdb.stub\n");
+					writer.flush();
+				} else if ("exit".equals(line)) {
+					return;
+				} else if (!line.isEmpty()) {
+					writer.write("unknown command: " + line + "\n");
+					writer.flush();
+				}
+			}
+		} catch (SocketException e) {
+			// 客户端断开
+		} catch (IOException e) {
+			// 忽略
+		}
+	}
+
+	/**
+	 * 解析telnet的put命令：put metric timestamp value tagk=tagv [...]，返回错误信息，合法时返回null
+	 */
+	private static String parsePut(String line) {
+		final String[] words = line.split(" +");
+		if (words.length < 5) {
+			return "not enough arguments (need least 4, got " + (words.length - 1) + ")";
+		}
+		try {
+			Long.parseLong(words[2]);
+		} catch (NumberFormatException e) {
+			return "Invalid timestamp: " + words[2];
+		}
+		try {
+			final double value = Double.parseDouble(words[3]);
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				return "Invalid value: " + words[3];
+			}
+		} catch (NumberFormatException e) {
+			return "Invalid value: " + words[3];
+		}
+		for (int i = 4; i < words.length; i++) {
+			final int eq = words[i].indexOf('=');
+			if (eq <= 0 || eq == words[i].length() - 1) {
+				return "invalid tag: " + words[i];
+			}
+		}
+		return null;
+	}
+
+	private enum Fault {
+		NONE, ERROR, RESET
+	}
+
+	/**
+	 * 按配置的延迟等待，并按概率决定本次请求的故障
+	 */
+	private Fault nextFault() {
+		final long delay = latency;
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		final double random = ThreadLocalRandom.current().nextDouble();
+		final double reset = resetRate;
+		if (random < reset) {
+			resets.incrementAndGet();
+			return Fault.RESET;
+		}
+		if (random < reset + errorRate) {
+			errors.incrementAndGet();
+			return Fault.ERROR;
+		}
+		return Fault.NONE;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+		} else {
+			final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		}
+		exchange.close();
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		final byte[] buffer = new byte[8192];
+		while (in.read(buffer) != -1) {
+			// 读完请求体，连接才能复用
+		}
+	}
+
+}
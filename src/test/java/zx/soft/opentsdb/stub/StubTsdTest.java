@@ -0,0 +1,111 @@
+package zx.soft.opentsdb.stub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import zx.soft.opentsdb.client.OpenTsdbClient;
+import zx.soft.opentsdb.metric.OpenTsdbMetric;
+
+public class StubTsdTest {
+
+	private StubTsd tsd;
+
+	@Before
+	public void setUp() throws IOException {
+		tsd = StubTsd.start(2);
+	}
+
+	@After
+	public void tearDown() {
+		tsd.close();
+	}
+
+	@Test
+	public void testPutDetails() throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(tsd.getHttpUrl() + "/api/put?details")
+				.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(("[{\"metric\":\"foo\",\"timestamp\":1,\"value\":2,\"tags\":{\"host\":\"a\"}},"
+					+ "{\"metric\":\"foo\",\"timestamp\":1,\"value\":3}]").getBytes(StandardCharsets.UTF_8));
+		}
+		assertEquals(400, connection.getResponseCode());
+		assertEquals("{\"success\":1,\"failed\":1,\"errors\":[{\"error\":\"Missing tags\"}]}",
+				read(connection.getErrorStream()));
+		assertEquals(1, tsd.getPoints());
+		assertEquals(1, tsd.getFailedPoints());
+	}
+
+	@Test
+	public void testTelnetPut() throws Exception {
+		try (Socket socket = new Socket(tsd.getTelnetHost(), tsd.getTelnetPort());
+				Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+			writer.write("put foo 1 2 host=a\nput foo 1 2\nput foo 2 3.5 host=a type=b\n");
+			writer.flush();
+		}
+		waitFor(3);
+		assertEquals(2, tsd.getPoints());
+		assertEquals(1, tsd.getFailedPoints());
+	}
+
+	@Test
+	public void testClientSurvivesFaults() throws Exception {
+		try (OpenTsdbClient client = OpenTsdbClient.forService(tsd.getHttpUrl())
+				.withTransport(OpenTsdbClient.TransportType.JDK).create()) {
+			final OpenTsdbMetric metric = OpenTsdbMetric.named("foo").withTimestamp(1L).withValue(2L)
+					.withTags(Collections.singletonMap("host", "a")).build();
+
+			tsd.setErrorRate(1);
+			client.send(metric);
+			assertEquals(1, tsd.getErrors());
+
+			tsd.setErrorRate(0);
+			tsd.setResetRate(1);
+			client.send(metric);
+			assertTrue(tsd.getResets() >= 1);
+
+			tsd.setResetRate(0);
+			tsd.setLatency(50, TimeUnit.MILLISECONDS);
+			final long start = System.nanoTime();
+			client.send(metric);
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+			assertEquals(1, tsd.getPoints());
+		}
+	}
+
+	private void waitFor(long points) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (tsd.getPoints() + tsd.getFailedPoints() < points && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1024];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}